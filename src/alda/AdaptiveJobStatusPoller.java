@@ -0,0 +1,71 @@
+package alda;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Polls quickly around the time a job is expected to change status, and backs
+ * off exponentially otherwise.
+ *
+ * It keeps a moving average of how long jobs spend in each status. While a job
+ * is in a status whose typical duration we know, we poll at half the
+ * remaining expected time, so that we find out about the change soon after it
+ * happens without polling constantly beforehand. Once the job has been in the
+ * status longer than expected (or from the start, if we've never seen the
+ * status before), we wait half as long as it's been overdue, so the delay
+ * grows exponentially from poll to poll. Delays are always between `minDelay`
+ * and `maxDelay`.
+ *
+ * The result is that the parsing -> playing transition right after
+ * submission is caught within a few ms, while a long "playing" phase costs
+ * only a handful of requests.
+ */
+public class AdaptiveJobStatusPoller implements JobStatusPoller {
+  public static final long DEFAULT_MIN_DELAY = 5;    // ms
+  public static final long DEFAULT_MAX_DELAY = 1000; // ms
+
+  // How much weight each new observation gets in the moving average.
+  private static final double SMOOTHING = 0.3;
+
+  private final long minDelay;
+  private final long maxDelay;
+  private final Map<String, Double> expectedDurations =
+    new ConcurrentHashMap<String, Double>();
+
+  public AdaptiveJobStatusPoller() {
+    this(DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY);
+  }
+
+  public AdaptiveJobStatusPoller(long minDelay, long maxDelay) {
+    this.minDelay = minDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * The typical time (ms) that jobs spend in `status`, or -1 if we haven't
+   * seen a job leave that status yet.
+   */
+  public long expectedDuration(String status) {
+    Double expected = expectedDurations.get(status);
+    return expected == null ? -1 : Math.round(expected);
+  }
+
+  @Override
+  public long nextDelay(String status, long elapsed, int polls) {
+    long expected = expectedDuration(status);
+
+    if (expected < 0) return clamp(elapsed / 2);
+
+    return clamp(Math.abs(expected - elapsed) / 2);
+  }
+
+  @Override
+  public void phaseCompleted(String status, long duration) {
+    expectedDurations.merge(status, (double) duration,
+                            (old, observed) -> old + SMOOTHING * (observed - old));
+  }
+
+  private long clamp(long delay) {
+    return Math.max(minDelay, Math.min(maxDelay, delay));
+  }
+}
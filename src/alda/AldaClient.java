@@ -21,6 +21,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.List;
 import java.util.Random;
@@ -268,50 +269,110 @@ public class AldaClient {
     System.out.printf("Successfully updated to Alda %s.\n", releaseVersion);
   }
 
+  // A line of `alda list` output.
+  //
+  // Each server's status is requested when its line is created, so that all
+  // of the servers are probed at once. The lines are then printed in order,
+  // each one as soon as it (and every line before it) is ready, giving up on
+  // any servers that haven't responded by `giveUpAt`.
+  private interface ListLine {
+    void print(long giveUpAt);
+  }
+
+  private static ListLine textLine(String format, Object... args) {
+    return giveUpAt -> {
+      System.out.printf(format, args);
+      System.out.flush();
+    };
+  }
+
+  private static ListLine serverLine(AldaServerOptions serverOpts, int port) {
+    serverOpts.host = "localhost";
+    serverOpts.port = port;
+    serverOpts.quiet = false;
+    AldaServer server = new AldaServer(serverOpts);
+    CompletableFuture<AldaResponse> status = server.statusAsync();
+    return giveUpAt -> server.reportStatus(status, giveUpAt);
+  }
+
+  private static void printLines(List<ListLine> lines) {
+    long giveUpAt = System.currentTimeMillis() +
+                    RetryPolicies.get("status").deadline();
+
+    for (ListLine line : lines) {
+      line.print(giveUpAt);
+    }
+  }
+
+  /**
+   * Lists the servers and workers in the RunRegistry, with the status of each
+   * server.
+   */
   public static void listProcesses(AldaServerOptions serverOpts)
+    throws SystemException {
+    long now = System.currentTimeMillis();
+    List<ListLine> lines = new ArrayList<ListLine>();
+
+    for (RunRegistry.Entry entry : RunRegistry.getEntries()) {
+      if (entry.role.equals("worker")) {
+        lines.add(textLine("[%d] Worker (pid: %d)\n", entry.port, entry.pid));
+      } else if (entry.state.equals(RunRegistry.UP)) {
+        lines.add(serverLine(serverOpts, entry.port));
+      } else {
+        lines.add(textLine("[%d] Server %s (pid: %d, for %ds)\n",
+                           entry.port, entry.state, entry.pid,
+                           (now - entry.startTime) / 1000));
+      }
+    }
+
+    printLines(lines);
+  }
+
+  /**
+   * Lists the Alda processes in the list of running processes, including any
+   * that aren't in the RunRegistry (e.g. started by an older client).
+   */
+  public static void scanProcesses(AldaServerOptions serverOpts)
     throws SystemException {
     IAldaProcessReader processReader = getProcessReader();
     List<AldaProcess> processes = processReader.getProcesses();
+    List<ListLine> lines = new ArrayList<ListLine>();
 
     for (AldaProcess process : processes) {
       if (process.type == "server") {
         if (process.port == -1) {
-          System.out.printf("[???] Mysterious server running on unknown " +
-                            "port (pid: %d)\n", process.pid);
-          System.out.flush();
+          lines.add(textLine("[???] Mysterious server running on unknown " +
+                             "port (pid: %d)\n", process.pid));
         } else {
-          serverOpts.host = "localhost";
-          serverOpts.port = process.port;
-          serverOpts.quiet = false;
-          AldaServer server = new AldaServer(serverOpts);
-          server.status();
+          lines.add(serverLine(serverOpts, process.port));
         }
       } else if (process.type == "worker") {
         if (process.port == -1) {
-          System.out.printf("[???] Mysterious worker running on unknown " +
-                            "port (pid: %d)\n", process.pid);
-          System.out.flush();
+          lines.add(textLine("[???] Mysterious worker running on unknown " +
+                             "port (pid: %d)\n", process.pid));
         } else {
-          System.out.printf("[%d] Worker (pid: %d)\n", process.port, process.pid);
-          System.out.flush();
+          lines.add(textLine("[%d] Worker (pid: %d)\n",
+                             process.port, process.pid));
         }
       } else {
         if (process.port == -1) {
-          System.out.printf("[???] Mysterious Alda process running on " +
-                            "unknown port (pid: %d)\n", process.pid);
-          System.out.flush();
+          lines.add(textLine("[???] Mysterious Alda process running on " +
+                             "unknown port (pid: %d)\n", process.pid));
         } else {
-          System.out.printf("[%d] Mysterious Alda process (pid: %d)\n",
-                            process.port, process.pid);
-          System.out.flush();
+          lines.add(textLine("[%d] Mysterious Alda process (pid: %d)\n",
+                             process.port, process.pid));
         }
       }
     }
+
+    printLines(lines);
   }
 
-  private static IAldaProcessReader getProcessReader() {
+  static IAldaProcessReader getProcessReader() {
     if (SystemUtils.IS_OS_WINDOWS) {
       return new AldaProcessReaderWindows();
+    } else if (SystemUtils.IS_OS_LINUX && AldaProcessReaderLinux.isSupported()) {
+      return new AldaProcessReaderLinux();
     } else {
       return new AldaProcessReaderUnix();
     }
@@ -329,14 +390,35 @@ public class AldaClient {
     return servers;
   }
 
-  public static boolean checkForExistingServer(int port)
-    throws SystemException {
+  // The server on this port in the list of running processes, or null. This
+  // is slower than looking it up in the RunRegistry, but also finds servers
+  // that aren't registered (e.g. started by an older client).
+  private static AldaProcess scanForServer(int port) throws SystemException {
     for (AldaProcess server : existingServers()) {
-      if (server.port == port) {
-        return true;
-      }
+      if (server.port == port) return server;
     }
 
-    return false;
+    return null;
+  }
+
+  /**
+   * The PID of the server running on this port, or -1 if there isn't one (or
+   * we don't know its PID).
+   */
+  public static int findServerPid(int port) throws SystemException {
+    RunRegistry.Entry entry = RunRegistry.getServer(port);
+    if (entry != null) return entry.pid;
+
+    AldaProcess server = scanForServer(port);
+    return server == null ? -1 : server.pid;
+  }
+
+  /**
+   * Whether there's a server running on this port, including one that's
+   * still starting and doesn't answer requests yet.
+   */
+  public static boolean checkForExistingServer(int port)
+    throws SystemException {
+    return RunRegistry.getServer(port) != null || scanForServer(port) != null;
   }
 }
@@ -0,0 +1,132 @@
+package alda;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters describing how the client has been talking to Alda
+ * servers.
+ *
+ * These are cheap to update and read, so that they can be sampled at any time
+ * (e.g. to verify how often sockets are being reused vs. rebuilt).
+ */
+public final class AldaClientMetrics {
+  private AldaClientMetrics() {}
+
+  // A request reused a socket that was already connected.
+  private static final AtomicLong connectionHits = new AtomicLong();
+  // A socket was created for an endpoint that had none.
+  private static final AtomicLong connectionsOpened = new AtomicLong();
+  // A socket was torn down and re-created after a timeout or failure.
+  private static final AtomicLong socketRebuilds = new AtomicLong();
+
+  // A request (or a wait loop in AldaServer) made another attempt after one
+  // failed.
+  private static final AtomicLong retries = new AtomicLong();
+  // A request failed because the server didn't respond in time, after all
+  // retries.
+  private static final AtomicLong timeouts = new AtomicLong();
+
+  // Replies to requests, and the total time (in ms) between sending the
+  // attempt that was answered and receiving the reply.
+  private static final AtomicLong roundTrips = new AtomicLong();
+  private static final AtomicLong roundTripTime = new AtomicLong();
+
+  // Play/export jobs that have been submitted and aren't done yet.
+  private static final AtomicLong jobsInFlight = new AtomicLong();
+
+  // Request fields that were sent compressed, and their sizes (in bytes)
+  // before and after compression.
+  private static final AtomicLong compressedFields = new AtomicLong();
+  private static final AtomicLong uncompressedBytes = new AtomicLong();
+  private static final AtomicLong compressedBytes = new AtomicLong();
+
+  static void recordConnectionHit() {
+    connectionHits.incrementAndGet();
+  }
+
+  static void recordConnectionOpened() {
+    connectionsOpened.incrementAndGet();
+  }
+
+  static void recordSocketRebuild() {
+    socketRebuilds.incrementAndGet();
+  }
+
+  static void recordRetry() {
+    retries.incrementAndGet();
+  }
+
+  static void recordTimeout() {
+    timeouts.incrementAndGet();
+  }
+
+  static void recordRoundTrip(long ms) {
+    roundTrips.incrementAndGet();
+    roundTripTime.addAndGet(ms);
+  }
+
+  static void recordJobStarted() {
+    jobsInFlight.incrementAndGet();
+  }
+
+  static void recordJobFinished() {
+    jobsInFlight.decrementAndGet();
+  }
+
+  static void recordCompression(long before, long after) {
+    compressedFields.incrementAndGet();
+    uncompressedBytes.addAndGet(before);
+    compressedBytes.addAndGet(after);
+  }
+
+  public static long connectionHits() {
+    return connectionHits.get();
+  }
+
+  public static long connectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  public static long socketRebuilds() {
+    return socketRebuilds.get();
+  }
+
+  public static long retries() {
+    return retries.get();
+  }
+
+  public static long timeouts() {
+    return timeouts.get();
+  }
+
+  public static long roundTrips() {
+    return roundTrips.get();
+  }
+
+  public static long roundTripTime() {
+    return roundTripTime.get();
+  }
+
+  public static long jobsInFlight() {
+    return jobsInFlight.get();
+  }
+
+  public static long compressedFields() {
+    return compressedFields.get();
+  }
+
+  public static long uncompressedBytes() {
+    return uncompressedBytes.get();
+  }
+
+  public static long compressedBytes() {
+    return compressedBytes.get();
+  }
+
+  /**
+   * The number of bytes that compression has kept off the wire.
+   */
+  public static long bytesSaved() {
+    return uncompressedBytes.get() - compressedBytes.get();
+  }
+}
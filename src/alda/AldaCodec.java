@@ -0,0 +1,769 @@
+package alda;
+
+import alda.AldaResponse.AldaScore;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the JSON messages exchanged with Alda servers.
+ *
+ * Each message type has a hand-written streaming TypeAdapter, created once and
+ * shared by every request, rather than a new reflection-based Gson instance
+ * per message. The adapters produce the same fields that Gson's reflection
+ * would (in declaration order, nulls omitted), and ignore any fields they
+ * don't recognize.
+ */
+public final class AldaCodec {
+  private AldaCodec() {}
+
+  private static final TypeAdapter<AldaRequest> REQUEST_ADAPTER =
+    new RequestAdapter(false);
+  private static final TypeAdapter<AldaRequest> DEFLATING_REQUEST_ADAPTER =
+    new RequestAdapter(true);
+  private static final TypeAdapter<AldaResponse> RESPONSE_ADAPTER =
+    new ResponseAdapter();
+  private static final TypeAdapter<AldaScore> SCORE_ADAPTER =
+    new ScoreAdapter();
+  private static final TypeAdapter<AldaServerStatus> SERVER_STATUS_ADAPTER =
+    new ServerStatusAdapter();
+
+  private static final Gson GSON =
+    new GsonBuilder().registerTypeAdapter(AldaRequest.class, REQUEST_ADAPTER)
+                     .registerTypeAdapter(AldaResponse.class, RESPONSE_ADAPTER)
+                     .registerTypeAdapter(AldaScore.class, SCORE_ADAPTER)
+                     .registerTypeAdapter(AldaServerStatus.class,
+                                          SERVER_STATUS_ADAPTER)
+                     .create();
+
+  /**
+   * A shared Gson instance that uses the adapters below for Alda message
+   * types. Gson instances are thread-safe.
+   */
+  public static Gson gson() {
+    return GSON;
+  }
+
+  // The name of the encoding used for compressed fields, as advertised by
+  // servers in their capabilities.
+  public static final String DEFLATE = "deflate";
+
+  // Fields smaller than this (in UTF-8 bytes) are never compressed; it isn't
+  // worth the CPU time, and the base64 overhead can make them bigger.
+  public static final int COMPRESSION_THRESHOLD = 8 * 1024;
+
+  public static String toJson(AldaRequest request) {
+    return toJson(request, false);
+  }
+
+  /**
+   * When `deflate` is true, the request's `body` and `options.history` are
+   * sent DEFLATE-compressed and base64-encoded if they are larger than
+   * COMPRESSION_THRESHOLD, with a `bodyEncoding` / `historyEncoding` field
+   * alongside to tell the server so. This should only be done for servers
+   * that advertise the "deflate" capability.
+   */
+  public static String toJson(AldaRequest request, boolean deflate) {
+    StringWriter out = new StringWriter();
+    TypeAdapter<AldaRequest> adapter =
+      deflate ? DEFLATING_REQUEST_ADAPTER : REQUEST_ADAPTER;
+
+    try {
+      adapter.write(new JsonWriter(out), request);
+    } catch (IOException e) {
+      // can't happen when writing to a StringWriter
+      throw new JsonParseException(e);
+    }
+
+    return out.toString();
+  }
+
+  // Each thread that encodes requests keeps a buffer to encode them into, so
+  // that encoding a large score doesn't mean growing (and copying) a new
+  // buffer every time. Buffers that grew past this size are not kept.
+  private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+  private static final ThreadLocal<Utf8FrameWriter> frameWriter =
+    ThreadLocal.withInitial(() -> new Utf8FrameWriter(8192));
+
+  /**
+   * Like `toJson`, but encodes the request straight to UTF-8 bytes, ready to
+   * be sent as a message frame, without building a String first.
+   */
+  public static byte[] toJsonBytes(AldaRequest request, boolean deflate) {
+    Utf8FrameWriter writer = frameWriter.get();
+    writer.reset();
+
+    TypeAdapter<AldaRequest> adapter =
+      deflate ? DEFLATING_REQUEST_ADAPTER : REQUEST_ADAPTER;
+
+    try {
+      JsonWriter out = new JsonWriter(writer);
+      adapter.write(out, request);
+      out.close();
+    } catch (IOException e) {
+      // can't happen when writing to a Utf8FrameWriter
+      throw new JsonParseException(e);
+    }
+
+    byte[] frame = writer.toByteArray();
+
+    if (writer.capacity() > MAX_RETAINED_BUFFER) {
+      frameWriter.remove();
+    }
+
+    return frame;
+  }
+
+  public static AldaRequest requestFromJson(String json) {
+    return fromJson(REQUEST_ADAPTER, json);
+  }
+
+  public static AldaResponse responseFromJson(String json) {
+    return fromJson(RESPONSE_ADAPTER, json);
+  }
+
+  /**
+   * Decodes a response straight from the UTF-8 bytes of a message frame.
+   */
+  public static AldaResponse responseFromJson(byte[] json) {
+    return fromJson(RESPONSE_ADAPTER,
+                    new InputStreamReader(new ByteArrayInputStream(json),
+                                          StandardCharsets.UTF_8));
+  }
+
+  public static AldaScore scoreFromJson(String json) {
+    return fromJson(SCORE_ADAPTER, json);
+  }
+
+  private static <T> T fromJson(TypeAdapter<T> adapter, String json) {
+    return fromJson(adapter, new StringReader(json));
+  }
+
+  private static <T> T fromJson(TypeAdapter<T> adapter, Reader json) {
+    try {
+      JsonReader reader = new JsonReader(json);
+      reader.setLenient(true);
+      return adapter.read(reader);
+    } catch (IOException | IllegalStateException e) {
+      throw new JsonParseException(e);
+    }
+  }
+
+  /**
+   * Reads the parts of a score's data representation (i.e. the output of
+   * `parse` with output type "data") that the REPL's :info command reports,
+   * skipping over everything else without building a tree of the whole score.
+   */
+  public static AldaScoreInfo scoreInfoFromJson(String json) {
+    AldaScoreInfo info = new AldaScoreInfo();
+    List<Map.Entry<String, Double>> markers =
+      new ArrayList<Map.Entry<String, Double>>();
+
+    try {
+      JsonReader in = new JsonReader(new StringReader(json));
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "instruments":
+            in.beginObject();
+            while (in.hasNext()) {
+              info.instruments.add(in.nextName());
+              in.skipValue();
+            }
+            in.endObject();
+            break;
+          case "current-instruments":
+            readStrings(in, info.currentInstruments);
+            break;
+          case "events":
+            in.beginArray();
+            while (in.hasNext()) {
+              in.skipValue();
+              info.events++;
+            }
+            in.endArray();
+            break;
+          case "markers":
+            in.beginObject();
+            while (in.hasNext()) {
+              String marker = in.nextName();
+              markers.add(new SimpleEntry<String, Double>(marker,
+                                                          in.nextDouble()));
+            }
+            in.endObject();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new JsonParseException(e);
+    }
+
+    markers.sort(Map.Entry.comparingByValue());
+    for (Map.Entry<String, Double> marker : markers) {
+      info.markers.add(marker.getKey());
+    }
+
+    return info;
+  }
+
+  /**
+   * Re-formats a JSON document with indentation, copying it token by token
+   * rather than parsing it into a tree first.
+   */
+  public static String prettyPrint(String json) {
+    StringWriter out = new StringWriter();
+
+    try {
+      JsonReader in = new JsonReader(new StringReader(json));
+      JsonWriter writer = new JsonWriter(out);
+      writer.setIndent("  ");
+      writer.setHtmlSafe(true);
+      writer.setSerializeNulls(false);
+      copy(in, writer);
+      writer.flush();
+    } catch (IOException | IllegalStateException e) {
+      throw new JsonParseException(e);
+    }
+
+    return out.toString();
+  }
+
+  private static void copy(JsonReader in, JsonWriter out) throws IOException {
+    int depth = 0;
+    do {
+      switch (in.peek()) {
+        case BEGIN_ARRAY:  in.beginArray();  out.beginArray();  depth++; break;
+        case END_ARRAY:    in.endArray();    out.endArray();    depth--; break;
+        case BEGIN_OBJECT: in.beginObject(); out.beginObject(); depth++; break;
+        case END_OBJECT:   in.endObject();   out.endObject();   depth--; break;
+        case NAME:         out.name(in.nextName());                      break;
+        case STRING:       out.value(in.nextString());                   break;
+        case NUMBER:       out.jsonValue(in.nextString());               break;
+        case BOOLEAN:      out.value(in.nextBoolean());                  break;
+        case NULL:         in.nextNull(); out.nullValue();               break;
+        case END_DOCUMENT: return;
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Returns `s` DEFLATE-compressed and base64-encoded, or null if it is too
+   * small to be worth compressing or doesn't get any smaller.
+   */
+  static String deflate(String s) {
+    byte[] input = s.getBytes(StandardCharsets.UTF_8);
+    if (input.length < COMPRESSION_THRESHOLD) return null;
+
+    Deflater deflater = new Deflater();
+    ByteArrayOutputStream compressed =
+      new ByteArrayOutputStream(input.length / 4);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        compressed.write(buffer, 0, deflater.deflate(buffer));
+      }
+    } finally {
+      deflater.end();
+    }
+
+    byte[] encoded = Base64.getEncoder().encode(compressed.toByteArray());
+    if (encoded.length >= input.length) return null;
+
+    AldaClientMetrics.recordCompression(input.length, encoded.length);
+    return new String(encoded, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * The opposite of `deflate`.
+   */
+  static String inflate(String s) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.getDecoder().decode(s));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(buffer);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated DEFLATE data.");
+        }
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException | IllegalArgumentException e) {
+      throw new IOException("Invalid DEFLATE data.", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static String nextStringOrNull(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    return in.nextString();
+  }
+
+  private static void readStrings(JsonReader in, Collection<String> into)
+    throws IOException {
+    in.beginArray();
+    while (in.hasNext()) {
+      into.add(nextStringOrNull(in));
+    }
+    in.endArray();
+  }
+
+  private static void writeStrings(JsonWriter out, Collection<String> strings)
+    throws IOException {
+    out.beginArray();
+    for (String s : strings) {
+      out.value(s);
+    }
+    out.endArray();
+  }
+
+  private static void writeField(JsonWriter out, String name, String value)
+    throws IOException {
+    if (value != null) out.name(name).value(value);
+  }
+
+  private static final class RequestAdapter extends TypeAdapter<AldaRequest> {
+    private final boolean deflate;
+
+    RequestAdapter(boolean deflate) {
+      this.deflate = deflate;
+    }
+
+    // Writes a field that may be compressed, followed by a field naming its
+    // encoding if it was.
+    private void writeLargeField(JsonWriter out, String name, String value,
+                                 String encodingName) throws IOException {
+      String compressed = deflate && value != null ? deflate(value) : null;
+
+      if (compressed == null) {
+        writeField(out, name, value);
+      } else {
+        out.name(name).value(compressed);
+        out.name(encodingName).value(DEFLATE);
+      }
+    }
+
+    @Override
+    public void write(JsonWriter out, AldaRequest request) throws IOException {
+      if (request == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      writeField(out, "command", request.command);
+      writeLargeField(out, "body", request.body, "bodyEncoding");
+      if (request.options != null) {
+        out.name("options");
+        writeOptions(out, request.options);
+      }
+      writeField(out, "requestId", request.requestId);
+      out.endObject();
+    }
+
+    private void writeOptions(JsonWriter out, AldaRequestOptions options)
+      throws IOException {
+      out.beginObject();
+      writeField(out, "filename", options.filename);
+      writeField(out, "from", options.from);
+      writeField(out, "to", options.to);
+      writeLargeField(out, "history", options.history, "historyEncoding");
+      writeField(out, "session", options.session);
+      writeField(out, "jobId", options.jobId);
+      writeField(out, "output", options.output);
+      if (options.subscribe != null) {
+        out.name("subscribe").value(options.subscribe);
+      }
+      if (options.jobs != null) {
+        out.name("jobs").beginArray();
+        for (AldaRequestOptions.JobRef job : options.jobs) {
+          out.beginObject();
+          writeField(out, "workerAddress", job.workerAddress);
+          writeField(out, "jobId", job.jobId);
+          out.endObject();
+        }
+        out.endArray();
+      }
+      out.endObject();
+    }
+
+    @Override
+    public AldaRequest read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      // Where it goes isn't part of the message.
+      AldaRequest request = new AldaRequest(null, 0);
+      String bodyEncoding = null;
+
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "command":      request.command = in.nextString();   break;
+          case "body":         request.body = in.nextString();      break;
+          case "bodyEncoding": bodyEncoding = in.nextString();      break;
+          case "requestId":    request.requestId = in.nextString(); break;
+          case "options":      request.options = readOptions(in);   break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+
+      request.body = decode(request.body, bodyEncoding);
+      return request;
+    }
+
+    private AldaRequestOptions readOptions(JsonReader in) throws IOException {
+      AldaRequestOptions options = new AldaRequestOptions();
+      String historyEncoding = null;
+
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "filename":  options.filename = in.nextString();  break;
+          case "from":      options.from = in.nextString();      break;
+          case "to":        options.to = in.nextString();        break;
+          case "history":   options.history = in.nextString();   break;
+          case "historyEncoding":
+            historyEncoding = in.nextString();
+            break;
+          case "session":   options.session = in.nextString();   break;
+          case "jobId":     options.jobId = in.nextString();     break;
+          case "output":    options.output = in.nextString();    break;
+          case "subscribe": options.subscribe = in.nextBoolean(); break;
+          case "jobs":
+            options.jobs = new ArrayList<AldaRequestOptions.JobRef>();
+            in.beginArray();
+            while (in.hasNext()) {
+              String workerAddress = null, jobId = null;
+              in.beginObject();
+              while (in.hasNext()) {
+                switch (in.nextName()) {
+                  case "workerAddress":
+                    workerAddress = nextStringOrNull(in);
+                    break;
+                  case "jobId":
+                    jobId = nextStringOrNull(in);
+                    break;
+                  default:
+                    in.skipValue();
+                }
+              }
+              in.endObject();
+              options.jobs.add(new AldaRequestOptions.JobRef(workerAddress,
+                                                             jobId));
+            }
+            in.endArray();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+
+      options.history = decode(options.history, historyEncoding);
+      return options;
+    }
+
+    // Undoes writeLargeField.
+    private static String decode(String value, String encoding)
+      throws IOException {
+      if (value == null || encoding == null) return value;
+      if (!encoding.equals(DEFLATE)) {
+        throw new IOException("Unknown encoding: " + encoding);
+      }
+      return inflate(value);
+    }
+  }
+
+  private static final class ResponseAdapter extends TypeAdapter<AldaResponse> {
+    @Override
+    public void write(JsonWriter out, AldaResponse response)
+      throws IOException {
+      if (response == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      out.name("success").value(response.success);
+      out.name("pending").value(response.pending);
+      writeField(out, "signal", response.signal);
+      writeField(out, "body", response.body);
+      writeField(out, "jobId", response.jobId);
+      writeField(out, "requestId", response.requestId);
+      if (response.score != null) {
+        out.name("score");
+        SCORE_ADAPTER.write(out, response.score);
+      }
+      if (response.serverStatus != null) {
+        out.name("serverStatus");
+        SERVER_STATUS_ADAPTER.write(out, response.serverStatus);
+      }
+      if (response.instruments != null) {
+        out.name("instruments");
+        writeStrings(out, response.instruments);
+      }
+      if (response.capabilities != null) {
+        out.name("capabilities");
+        writeStrings(out, response.capabilities);
+      }
+      if (response.jobs != null) {
+        out.name("jobs").beginArray();
+        for (AldaResponse job : response.jobs) write(out, job);
+        out.endArray();
+      }
+      out.name("noWorker").value(response.noWorker);
+      out.endObject();
+    }
+
+    @Override
+    public AldaResponse read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      AldaResponse response = new AldaResponse();
+
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "success":   response.success = in.nextBoolean();   break;
+          case "pending":   response.pending = in.nextBoolean();   break;
+          case "signal":    response.signal = in.nextString();     break;
+          case "body":      response.body = in.nextString();       break;
+          case "jobId":     response.jobId = in.nextString();      break;
+          case "requestId": response.requestId = in.nextString();  break;
+          case "capabilities":
+            response.capabilities = new ArrayList<String>();
+            readStrings(in, response.capabilities);
+            break;
+          case "jobs":
+            response.jobs = new ArrayList<AldaResponse>();
+            in.beginArray();
+            while (in.hasNext()) response.jobs.add(read(in));
+            in.endArray();
+            break;
+          case "noWorker":  response.noWorker = in.nextBoolean();  break;
+          case "score":     response.score = SCORE_ADAPTER.read(in); break;
+          case "serverStatus":
+            response.serverStatus = SERVER_STATUS_ADAPTER.read(in);
+            break;
+          case "instruments":
+            response.instruments = new ArrayList<String>();
+            readStrings(in, response.instruments);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+
+      return response;
+    }
+  }
+
+  private static final class ScoreAdapter extends TypeAdapter<AldaScore> {
+    @Override
+    public void write(JsonWriter out, AldaScore score) throws IOException {
+      if (score == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      if (score.chordMode != null) {
+        out.name("chord-mode").value(score.chordMode);
+      }
+      if (score.currentInstruments != null) {
+        out.name("current-instruments");
+        writeStrings(out, score.currentInstruments);
+      }
+      if (score.nicknames != null) {
+        out.name("nicknames");
+        out.beginObject();
+        for (Map.Entry<String, Set<String>> nickname :
+             score.nicknames.entrySet()) {
+          out.name(nickname.getKey());
+          writeStrings(out, nickname.getValue());
+        }
+        out.endObject();
+      }
+      out.endObject();
+    }
+
+    @Override
+    public AldaScore read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      AldaScore score = new AldaScore();
+
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "chord-mode":
+            score.chordMode = in.nextBoolean();
+            break;
+          case "current-instruments":
+            score.currentInstruments = new LinkedHashSet<String>();
+            readStrings(in, score.currentInstruments);
+            break;
+          case "nicknames":
+            score.nicknames = new LinkedHashMap<String, Set<String>>();
+            in.beginObject();
+            while (in.hasNext()) {
+              String nickname = in.nextName();
+              Set<String> instruments = new LinkedHashSet<String>();
+              readStrings(in, instruments);
+              score.nicknames.put(nickname, instruments);
+            }
+            in.endObject();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+
+      return score;
+    }
+  }
+
+  private static final class ServerStatusAdapter
+    extends TypeAdapter<AldaServerStatus> {
+    @Override
+    public void write(JsonWriter out, AldaServerStatus status)
+      throws IOException {
+      if (status == null) {
+        out.nullValue();
+        return;
+      }
+
+      out.beginObject();
+      out.name("up").value(status.up);
+      out.name("workersTotal").value(status.workersTotal);
+      out.name("workersAvailable").value(status.workersAvailable);
+      if (status.workersBusy != null) {
+        out.name("workersBusy").value(status.workersBusy);
+      }
+      if (status.queueDepth != null) {
+        out.name("queueDepth").value(status.queueDepth);
+      }
+      if (status.uptime != null) {
+        out.name("uptime").value(status.uptime);
+      }
+      if (status.backendPort != null) {
+        out.name("backendPort").value(status.backendPort);
+      }
+      out.endObject();
+    }
+
+    @Override
+    public AldaServerStatus read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      AldaServerStatus status = new AldaServerStatus();
+
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+
+        switch (name) {
+          case "up":               status.up = in.nextBoolean();        break;
+          case "workersTotal":     status.workersTotal = in.nextInt();  break;
+          case "workersAvailable": status.workersAvailable = in.nextInt(); break;
+          case "workersBusy":      status.workersBusy = in.nextInt();   break;
+          case "queueDepth":       status.queueDepth = in.nextInt();    break;
+          case "uptime":           status.uptime = in.nextLong();       break;
+          case "backendPort":      status.backendPort = in.nextInt();   break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+
+      return status;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package alda;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * A DEALER socket connected to a single Alda server endpoint (host:port).
+ *
+ * Connections are cached by endpoint (see AldaRequestDispatcher) and kept open
+ * across requests, so that consecutive requests to the same server (e.g.
+ * `ping` followed by `play` followed by a series of `job-status` requests)
+ * share a single TCP connection.
+ *
+ * The socket is only torn down when a request times out on a server that
+ * doesn't echo request IDs. At that point, we can't be sure whether or not the
+ * server will eventually reply, and a late reply sitting in the socket's queue
+ * would be mistaken for the response to the next request, so we start over
+ * with a fresh socket. When the server does echo request IDs, late replies are
+ * simply discarded.
+ *
+ * A connection is only ever used from the dispatcher's I/O thread.
+ */
+public class AldaConnection {
+  private final String endpoint;
+  private final Poller poller;
+  private Socket socket;
+  private int pollerIndex;
+  private boolean failed = false;
+
+  // Requests waiting for their turn on this connection.
+  final Deque<AldaRequestDispatcher.PendingRequest> waiting =
+    new ArrayDeque<AldaRequestDispatcher.PendingRequest>();
+
+  // Requests that have been sent and are awaiting a reply, by request ID, in
+  // the order in which they were sent.
+  final Map<String, AldaRequestDispatcher.PendingRequest> inFlight =
+    new LinkedHashMap<String, AldaRequestDispatcher.PendingRequest>();
+
+  // Set once the server has echoed a request ID back to us. Until then, we
+  // can't tell which reply belongs to which request, so we only have one
+  // request in flight at a time.
+  boolean pipelining = false;
+
+  AldaConnection(String endpoint, Poller poller) {
+    this.endpoint = endpoint;
+    this.poller = poller;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Returns the connected socket, connecting it first if needed.
+   */
+  Socket socket() {
+    if (socket != null) {
+      AldaClientMetrics.recordConnectionHit();
+      return socket;
+    }
+
+    socket = AldaRequest.getZContext().createSocket(ZMQ.DEALER);
+    socket.connect(endpoint);
+    pollerIndex = poller.register(socket, Poller.POLLIN);
+
+    if (failed) {
+      AldaClientMetrics.recordSocketRebuild();
+      failed = false;
+    } else {
+      AldaClientMetrics.recordConnectionOpened();
+    }
+
+    return socket;
+  }
+
+  /**
+   * True if the last poll found a message waiting on this connection's socket.
+   */
+  boolean readable() {
+    return socket != null && poller.pollin(pollerIndex);
+  }
+
+  /**
+   * Receives the next message waiting on the socket, or returns null if there
+   * isn't one.
+   */
+  ZMsg recv() {
+    if (socket == null) return null;
+    return ZMsg.recvMsg(socket, ZMQ.DONTWAIT);
+  }
+
+  /**
+   * Discards the current socket, e.g. after a request timed out. The next call
+   * to `socket()` will connect a new one.
+   */
+  void markFailed() {
+    if (socket != null) {
+      poller.unregister(socket);
+      AldaRequest.getZContext().destroySocket(socket);
+      socket = null;
+    }
+
+    failed = true;
+  }
+}
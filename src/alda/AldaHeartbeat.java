@@ -0,0 +1,162 @@
+package alda;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pings a server in the background at a regular interval and keeps track of
+ * whether it's responding.
+ *
+ * This lets long-lived clients (e.g. the REPL) check whether the server is up
+ * without waiting on a round trip, and find out about an outage when it
+ * happens, rather than the next time they send a request.
+ *
+ * Each ping is a single attempt (no retries). A server is:
+ *
+ *   UP       if it answered the last ping promptly
+ *   DEGRADED if it answered slowly, answered unsuccessfully, or missed fewer
+ *            than FAILURES_BEFORE_DOWN pings in a row
+ *   DOWN     if it missed FAILURES_BEFORE_DOWN or more pings in a row
+ *   UNKNOWN  until the first ping completes
+ */
+public class AldaHeartbeat {
+  public enum Liveness { UNKNOWN, UP, DEGRADED, DOWN }
+
+  public interface Listener {
+    void livenessChanged(Liveness previous, Liveness current);
+  }
+
+  public static final int DEFAULT_INTERVAL = 2000; // ms
+
+  private static final int PING_TIMEOUT = 1000;   // ms
+  private static final int SLOW_PING = 500;       // ms
+  private static final int FAILURES_BEFORE_DOWN = 2;
+
+  // Shared by all heartbeats; it only sends pings, without waiting for them.
+  private static final ScheduledExecutorService scheduler =
+    Executors.newSingleThreadScheduledExecutor(
+      Util.daemonThreadFactory("alda-heartbeat")
+    );
+
+  private final String host;
+  private final int port;
+  private final int interval;
+  private final List<Listener> listeners =
+    new CopyOnWriteArrayList<Listener>();
+
+  private volatile boolean running = false;
+  private volatile ScheduledFuture<?> nextBeat;
+
+  private volatile Liveness liveness = Liveness.UNKNOWN;
+  private volatile long lastRtt = -1;
+  private volatile long lastChecked = -1;
+
+  // Only one ping is outstanding at a time, and each one is sent after the
+  // previous one has completed, so this is never updated concurrently.
+  private volatile int consecutiveFailures = 0;
+
+  public AldaHeartbeat(String host, int port, int interval) {
+    this.host = host;
+    this.port = port;
+    this.interval = interval;
+  }
+
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    nextBeat = scheduler.schedule(this::beat, 0, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (nextBeat != null) nextBeat.cancel(false);
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public Liveness getLiveness() {
+    return liveness;
+  }
+
+  /**
+   * The round-trip time (ms) of the last ping that got a response, or -1 if
+   * none has.
+   */
+  public long getLastRtt() {
+    return lastRtt;
+  }
+
+  /**
+   * When (as returned by System.currentTimeMillis) the last ping completed, or
+   * -1 if none has.
+   */
+  public long getLastChecked() {
+    return lastChecked;
+  }
+
+  /**
+   * Forgets what we know about the server, e.g. because we've just started or
+   * stopped it, until the next ping completes.
+   */
+  void reset() {
+    consecutiveFailures = 0;
+    liveness = Liveness.UNKNOWN;
+  }
+
+  private void beat() {
+    if (!running) return;
+
+    AldaRequest req = new AldaRequest(host, port);
+    req.command = "ping";
+
+    long start = System.nanoTime();
+    req.sendAsync(ExponentialBackoff.fixed(Math.min(PING_TIMEOUT, interval), 0))
+       .whenComplete((res, error) -> {
+         long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+         if (error == null) {
+           consecutiveFailures = 0;
+           lastRtt = rtt;
+           update(res.success && rtt <= SLOW_PING ? Liveness.UP
+                                                  : Liveness.DEGRADED);
+         } else {
+           consecutiveFailures++;
+           update(consecutiveFailures >= FAILURES_BEFORE_DOWN
+                    ? Liveness.DOWN
+                    : Liveness.DEGRADED);
+         }
+
+         scheduleNext();
+       });
+  }
+
+  private synchronized void scheduleNext() {
+    if (running) {
+      nextBeat = scheduler.schedule(this::beat, interval,
+                                    TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void update(Liveness current) {
+    lastChecked = System.currentTimeMillis();
+
+    Liveness previous = liveness;
+    liveness = current;
+
+    if (previous != current) {
+      for (Listener listener : listeners) {
+        listener.livenessChanged(previous, current);
+      }
+    }
+  }
+}
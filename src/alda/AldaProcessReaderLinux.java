@@ -0,0 +1,136 @@
+package alda;
+
+import alda.error.SystemException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds Alda processes by reading /proc/<pid>/cmdline, rather than starting a
+ * `ps` process and parsing its output (see AldaProcessReaderUnix).
+ *
+ * Each cmdline is the process's arguments, each terminated by a NUL byte, so
+ * there's no need for regexes: we skip any process whose cmdline doesn't
+ * contain the fingerprint, and read the port and type from the arguments of
+ * those that do in a single pass.
+ */
+public class AldaProcessReaderLinux implements IAldaProcessReader {
+  private static final Path PROC = Paths.get("/proc");
+
+  private static final byte[] FINGERPRINT =
+    "--alda-fingerprint".getBytes(StandardCharsets.US_ASCII);
+
+  public static boolean isSupported() {
+    return Files.isDirectory(PROC.resolve("self"));
+  }
+
+  @Override
+  public List<AldaProcess> getProcesses() throws SystemException {
+    List<AldaProcess> processes = new ArrayList<AldaProcess>();
+
+    // Reused for each process; grown as needed.
+    byte[] buffer = new byte[4096];
+
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(PROC)) {
+      for (Path dir : dirs) {
+        int pid = parsePid(dir.getFileName().toString());
+        if (pid < 0) continue;
+
+        int length = 0;
+        try (FileInputStream in =
+               new FileInputStream("/proc/" + pid + "/cmdline")) {
+          int n;
+          while ((n = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += n;
+            if (length == buffer.length) {
+              buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+          }
+        } catch (IOException e) {
+          // The process exited while we were looking, or isn't ours to read.
+          continue;
+        }
+
+        AldaProcess process = parseCmdline(pid, buffer, length);
+        if (process != null) processes.add(process);
+      }
+    } catch (IOException e) {
+      throw new SystemException("Unable to list running processes.", e);
+    }
+
+    return processes;
+  }
+
+  // The PID that a /proc entry is named after, or -1 if it isn't a process.
+  private static int parsePid(String name) {
+    int pid = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c < '0' || c > '9') return -1;
+      pid = pid * 10 + (c - '0');
+    }
+    return name.isEmpty() ? -1 : pid;
+  }
+
+  /**
+   * The Alda process described by the NUL-separated arguments in the first
+   * `length` bytes of `cmdline`, or null if it isn't one.
+   */
+  static AldaProcess parseCmdline(int pid, byte[] cmdline, int length) {
+    if (indexOf(cmdline, length, FINGERPRINT) < 0) return null;
+
+    AldaProcess process = new AldaProcess();
+    process.pid = pid;
+    process.port = -1;
+
+    boolean portNext = false;
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i < length && cmdline[i] != 0) continue;
+
+      String arg = new String(cmdline, start, i - start,
+                              StandardCharsets.UTF_8);
+      start = i + 1;
+
+      if (portNext) {
+        process.port = parsePort(arg);
+        portNext = false;
+      } else if (arg.equals("--port") || arg.equals("-p")) {
+        portNext = true;
+      } else if (arg.equals("worker")) {
+        process.type = "worker";
+      } else if (arg.equals("server") && process.type == null) {
+        process.type = "server";
+      }
+    }
+
+    return process;
+  }
+
+  private static int parsePort(String arg) {
+    try {
+      return Integer.parseInt(arg);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static int indexOf(byte[] bytes, int length, byte[] target) {
+    outer:
+    for (int i = 0; i <= length - target.length; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (bytes[i + j] != target[j]) continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+}
@@ -16,6 +16,11 @@ public class AldaProcessReaderUnix implements IAldaProcessReader {
     private static String PROCESS_LIST_BSD_COMMAND = "ps -ax";
     private static String PROCESS_LIST_ATANDT_COMMAND = "ps ax";
 
+    private static final Pattern PID = Pattern.compile("^\\s*(\\d+).*");
+    private static final Pattern PORT = Pattern.compile(".*--port (\\d+).*");
+    private static final Pattern SERVER = Pattern.compile(".* server.*");
+    private static final Pattern WORKER = Pattern.compile(".* worker.*");
+
     @Override
     public List<AldaProcess> getProcesses() throws SystemException {
         List<AldaProcess> processes = new ArrayList<AldaProcess>();
@@ -37,10 +42,10 @@ public class AldaProcessReaderUnix implements IAldaProcessReader {
             if (line.contains("alda-fingerprint")) {
               AldaProcess process = new AldaProcess();
 
-              Matcher a = Pattern.compile("^\\s*(\\d+).*").matcher(line);
-              Matcher b = Pattern.compile(".*--port (\\d+).*").matcher(line);
-              Matcher c = Pattern.compile(".* server.*").matcher(line);
-              Matcher d = Pattern.compile(".* worker.*").matcher(line);
+              Matcher a = PID.matcher(line);
+              Matcher b = PORT.matcher(line);
+              Matcher c = SERVER.matcher(line);
+              Matcher d = WORKER.matcher(line);
               if (a.find()) {
                 process.pid = Integer.parseInt(a.group(1));
                 if (b.find()) {
@@ -2,60 +2,27 @@ package alda;
 
 import alda.error.NoResponseException;
 
-import com.google.gson.Gson;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.zeromq.ZContext;
 import org.zeromq.ZMsg;
-import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.PollItem;
-import org.zeromq.ZMQ.Poller;
-import org.zeromq.ZMQ.Socket;
 
 public class AldaRequest {
   private static ZContext zContext = null;
-  public static ZContext getZContext() {
+  public static synchronized ZContext getZContext() {
     if (zContext == null) {
       zContext = new ZContext();
     }
     return zContext;
   }
 
-  private static Poller poller;
-  private Poller getPoller() {
-    if (poller == null) {
-      poller = getZContext().createPoller(1);
-    }
-    return poller;
-  }
-
-  private static Socket socket;
-  private Socket getSocket() {
-    if (socket == null) {
-      socket = getZContext().createSocket(ZMQ.DEALER);
-      socket.connect(host + ":" + port);
-      getPoller().register(socket, Poller.POLLIN);
-    }
-    return socket;
-  }
-
-  private void destroySocket() {
-    if (socket != null) {
-      poller.unregister(socket);
-      getZContext().destroySocket(socket);
-      socket = null;
-    }
-  }
-
-  private Socket rebuildSocket() {
-    destroySocket();
-    return getSocket();
-  }
-
-  private final static int REQUEST_TIMEOUT = 500; //  ms
-  private final static int REQUEST_RETRIES = 10;  //  Before we abandon
+  private static final AtomicLong nextRequestId = new AtomicLong();
 
   // Enable debug to print out all json queries to server
-  private static boolean debug = false;
+  private static volatile boolean debug = false;
 
   private transient String host;
   private transient int port;
@@ -70,6 +37,11 @@ public class AldaRequest {
   public String body;
   public AldaRequestOptions options;
 
+  // Identifies this request among all requests sent by this client process.
+  // Servers that support it echo this back in the response, so that replies
+  // can be matched with requests even when they arrive out of order.
+  public String requestId;
+
   /**
    * Sets the global debug flag on/off to print all incoming json
    */
@@ -84,82 +56,131 @@ public class AldaRequest {
   }
 
   public String toJson() {
-    Gson gson = new Gson();
-    return gson.toJson(this);
+    return AldaCodec.toJson(this);
   }
 
-  private AldaResponse sendRequest(ZMsg request, int timeout, int retries)
-    throws NoResponseException {
-    // When non-null, used to help ensure that we don't use a response from the
-    // server that was for a different request.
-    String jobId = options == null ? null : options.jobId;
-
-    while (retries >= 0 && !Thread.currentThread().isInterrupted()) {
-      Poller poller = getPoller();
-      Socket client = rebuildSocket();
-
-      // false means don't destroy the message after sending
-      request.send(client, false);
+  private void assignRequestId() {
+    if (requestId == null) {
+      requestId = Long.toString(nextRequestId.incrementAndGet());
+    }
+  }
 
-      int rc = poller.poll(timeout);
-      if (rc == -1) {
-        request.destroy();
-        throw new NoResponseException("Connection interrupted.");
-      }
+  // When non-null, used to help ensure that we don't use a response from the
+  // server that was for a different request.
+  private String jobId() {
+    return options == null ? null : options.jobId;
+  }
 
-      if (poller.pollin(0)) {
-        ZMsg zmsg = ZMsg.recvMsg(client);
-        if (debug) zmsg.dump();
+  private CompletableFuture<AldaResponse> submit(RetryPolicy policy,
+                                                 boolean blocking) {
+    assignRequestId();
+    return AldaRequestDispatcher.get()
+                                .submit(host, port, requestId, jobId(),
+                                        toZMsg(), policy, blocking);
+  }
 
-        byte[] address = zmsg.unwrap().getData(); // discard envelope
-        String responseJson = zmsg.popString();
+  private ZMsg toZMsg() {
+    ZMsg request = new ZMsg();
 
-        AldaResponse response = AldaResponse.fromJson(responseJson);
+    // Large scores are sent compressed to servers that can decompress them.
+    boolean deflate = AldaRequestDispatcher.get()
+                                           .serverSupports(host, port,
+                                                           AldaCodec.DEFLATE);
+    // Encoded straight to UTF-8 bytes, rather than to a String that ZeroMQ
+    // would then have to encode again.
+    request.add(AldaCodec.toJsonBytes(this, deflate));
 
-        // If there is a jobId option, we will ignore any response from the
-        // server that doesn't have the same jobId, and try again. This will not
-        // count against our remaining retries, as the server did respond.
-        if (jobId != null &&
-            response.jobId != null &&
-            !jobId.equals(response.jobId))
-          continue;
+    if (workerToUse != null) {
+      request.add(workerToUse);
+    }
 
-        if (!response.noWorker)
-          response.workerAddress = zmsg.pop().getData();
+    request.addString(command);
 
-        request.destroy();
-        return response;
-      }
+    return request;
+  }
 
-      // Didn't get a response within the allowed timeout. Try again, unless
-      // we're out of retries.
-      retries--;
-    }
+  /**
+   * Sends the request without blocking the calling thread.
+   *
+   * The request is sent from a shared background I/O thread. The returned
+   * future completes with the server's response, or exceptionally with a
+   * NoResponseException if the server doesn't respond within the attempts
+   * that `policy` allows.
+   */
+  public CompletableFuture<AldaResponse> sendAsync(RetryPolicy policy) {
+    return submit(policy, false);
+  }
 
-    request.destroy();
-    String errorMsg = "Alda server is down. To start the server, run `alda up`.";
-    throw new NoResponseException(errorMsg);
+  public CompletableFuture<AldaResponse> sendAsync(int timeout, int retries) {
+    return sendAsync(ExponentialBackoff.fixed(timeout, retries));
   }
 
-  public AldaResponse send(int timeout, int retries) throws NoResponseException {
-    ZMsg request = new ZMsg();
+  /**
+   * Sends the request using the retry policy for its command (see
+   * RetryPolicies).
+   */
+  public CompletableFuture<AldaResponse> sendAsync() {
+    return sendAsync(RetryPolicies.get(command));
+  }
 
-    request.addString(this.toJson());
+  /**
+   * Sends a request that the server answers with a series of pending
+   * responses followed by a final one (e.g. a job-status request with
+   * `options.subscribe` set). Only for servers that echo request IDs.
+   *
+   * `onUpdate` is called with each pending response, on the client's I/O
+   * thread, so it must return quickly (e.g. by handing the response to
+   * another thread). The returned future completes with the final response.
+   */
+  public CompletableFuture<AldaResponse> subscribe(RetryPolicy policy,
+                                                   Consumer<AldaResponse>
+                                                     onUpdate) {
+    assignRequestId();
+    return AldaRequestDispatcher.get()
+                                .subscribe(host, port, requestId, jobId(),
+                                           toZMsg(), policy, onUpdate);
+  }
 
-    if (workerToUse != null) {
-      request.add(workerToUse);
+  /**
+   * Waits for the response to a request sent via `sendAsync`, unwrapping a
+   * NoResponseException if the request failed.
+   */
+  public static AldaResponse await(CompletableFuture<AldaResponse> response)
+    throws NoResponseException {
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException("Connection interrupted.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof NoResponseException) {
+        throw (NoResponseException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
     }
+  }
 
-    request.addString(command);
+  public AldaResponse send(RetryPolicy policy) throws NoResponseException {
+    return await(submit(policy, true));
+  }
 
-    return sendRequest(request, timeout, retries);
+  public AldaResponse send(int timeout, int retries) throws NoResponseException {
+    return send(ExponentialBackoff.fixed(timeout, retries));
   }
 
   public AldaResponse send(int timeout) throws NoResponseException {
-    return send(timeout, REQUEST_RETRIES);
+    return send(timeout, RetryPolicies.get(command).maxRetries());
   }
 
+  /**
+   * Sends the request using the retry policy for its command (see
+   * RetryPolicies).
+   */
   public AldaResponse send() throws NoResponseException {
-    return send(REQUEST_TIMEOUT, REQUEST_RETRIES);
+    return send(RetryPolicies.get(command));
   }
 }
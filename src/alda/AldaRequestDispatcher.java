@@ -0,0 +1,543 @@
+package alda;
+
+import alda.error.NoResponseException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+/**
+ * Owns every socket that the client uses to talk to Alda servers, and services
+ * all requests from a single background I/O thread.
+ *
+ * ZeroMQ sockets must not be used from more than one thread, so rather than
+ * having each caller drive a socket (and block in `poll` while it waits for a
+ * reply), callers hand their requests to the I/O thread and get back a
+ * CompletableFuture. The I/O thread multiplexes any number of outstanding
+ * requests over one connection per server, matches replies to requests by
+ * request ID, and handles timeouts and retries.
+ *
+ * Servers that echo the request ID back can have many requests in flight on
+ * the same connection, answered in any order. Servers that don't are sent one
+ * request at a time.
+ *
+ * `submit` is safe to call from any number of threads at once. Requests are
+ * handed to the I/O thread through a lock-free queue, and no thread other
+ * than the I/O thread ever touches a connection's socket.
+ */
+class AldaRequestDispatcher {
+  private static final String SERVER_DOWN_MSG =
+    "Alda server is down. To start the server, run `alda up`.";
+
+  // The longest we'll sit in `poll` when there is nothing to time out.
+  private static final int IDLE_POLL_INTERVAL = 1000; // ms
+
+  // The most requests we'll have outstanding on a single connection to a
+  // server that echoes request IDs.
+  private static final int MAX_PIPELINED_REQUESTS = 64;
+
+  private static final byte[] WAKEUP = new byte[0];
+
+  // How long a subscription can go without an update before we give up on it.
+  private static final int SUBSCRIPTION_IDLE_TIMEOUT = 10000; // ms
+
+  // Initialized (and the I/O thread started) the first time a request is sent.
+  // The JVM guarantees that this happens exactly once, without callers having
+  // to take a lock on every request.
+  private static class Holder {
+    static final AldaRequestDispatcher INSTANCE = new AldaRequestDispatcher();
+    static {
+      INSTANCE.start();
+    }
+  }
+
+  static AldaRequestDispatcher get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * A request that has been submitted, but not yet answered.
+   */
+  static class PendingRequest {
+    final String endpoint;
+    final String requestId;
+    final String jobId;
+    final ZMsg msg;
+    final RetryPolicy policy;
+    // True when the only thing waiting on the future is a thread blocked in
+    // `get`, so it's safe (and quicker) to complete it on the I/O thread.
+    final boolean completeInline;
+    final CompletableFuture<AldaResponse> future =
+      new CompletableFuture<AldaResponse>();
+
+    // For subscriptions, which get a series of pending responses followed by
+    // a final one: called with each pending response.
+    Consumer<AldaResponse> onUpdate;
+    // Set once a subscription has had its first response. From then on, the
+    // request is never re-sent.
+    boolean subscribed = false;
+
+    // The number of the current attempt, starting from 0.
+    int attempt = -1;
+    // When we stop waiting on the current attempt, or (if backingOff) when we
+    // make the next one.
+    long deadline;
+    boolean backingOff = false;
+    // When we give up altogether, per the policy's deadline. Set when the
+    // request is first sent.
+    long giveUpAt;
+    // When the current attempt was sent.
+    long sentAt;
+
+    PendingRequest(String endpoint, String requestId, String jobId, ZMsg msg,
+                   RetryPolicy policy, boolean completeInline) {
+      this.endpoint = endpoint;
+      this.requestId = requestId;
+      this.jobId = jobId;
+      this.msg = msg;
+      this.policy = policy;
+      this.completeInline = completeInline;
+    }
+  }
+
+  private final Queue<PendingRequest> submissions =
+    new ConcurrentLinkedQueue<PendingRequest>();
+  // Subscriptions whose futures were cancelled by the caller, to be taken out
+  // of flight.
+  private final Queue<PendingRequest> cancellations =
+    new ConcurrentLinkedQueue<PendingRequest>();
+
+  // The capabilities that each server advertised in its most recent response,
+  // by endpoint. Written by the I/O thread, read by submitting threads.
+  private final Map<String, Set<String>> capabilities =
+    new ConcurrentHashMap<String, Set<String>>();
+
+  // Whether each server echoes request IDs (see AldaConnection.pipelining), by
+  // endpoint. Written by the I/O thread, read by submitting threads.
+  private final Map<String, Boolean> pipelining =
+    new ConcurrentHashMap<String, Boolean>();
+
+  // Only touched by the I/O thread.
+  private final Map<String, AldaConnection> connections =
+    new HashMap<String, AldaConnection>();
+  private final Poller poller;
+
+  // Submitting threads send an empty message through this pair of sockets to
+  // wake the I/O thread out of `poll` when there is a new request to send.
+  //
+  // (A java.nio Pipe would be the obvious choice, but jeromq's Poller keeps
+  // reporting a channel as readable after it has been drained.)
+  private static final String WAKEUP_ENDPOINT =
+    "inproc://alda-request-dispatcher-wakeup";
+  private final Socket wakeupSender;
+  private final Socket wakeupReceiver;
+  private final int wakeupIndex;
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+  // Futures are completed on this executor rather than the I/O thread, so that
+  // callbacks attached to them (which may well send more requests and wait for
+  // them) can never stall the I/O loop.
+  private final ExecutorService completions =
+    Executors.newCachedThreadPool(
+      Util.daemonThreadFactory("alda-request-completion")
+    );
+
+  private AldaRequestDispatcher() {
+    ZContext context = AldaRequest.getZContext();
+
+    wakeupReceiver = context.createSocket(ZMQ.PULL);
+    wakeupReceiver.bind(WAKEUP_ENDPOINT);
+    wakeupSender = context.createSocket(ZMQ.PUSH);
+    wakeupSender.connect(WAKEUP_ENDPOINT);
+
+    poller = context.createPoller(1);
+    wakeupIndex = poller.register(wakeupReceiver, Poller.POLLIN);
+  }
+
+  private void start() {
+    Util.daemonThreadFactory("alda-request-io").newThread(this::run).start();
+  }
+
+  /**
+   * Queues a request to be sent by the I/O thread.
+   *
+   * The returned future completes with the server's response, or
+   * exceptionally with a NoResponseException if there is no response after
+   * as many attempts as `policy` allows.
+   *
+   * `blocking` should only be true if the caller is going to wait on the future
+   * without attaching any callbacks to it.
+   */
+  CompletableFuture<AldaResponse> submit(String host, int port,
+                                         String requestId, String jobId,
+                                         ZMsg msg, RetryPolicy policy,
+                                         boolean blocking) {
+    PendingRequest request = new PendingRequest(
+      host + ":" + port, requestId, jobId, msg, policy, blocking
+    );
+    submissions.add(request);
+    wakeup();
+    return request.future;
+  }
+
+  /**
+   * True if the server at this host and port has said that it supports
+   * `capability`. Until we've heard from a server, we assume that it doesn't
+   * support anything.
+   */
+  boolean serverSupports(String host, int port, String capability) {
+    Set<String> supported = capabilities.get(host + ":" + port);
+    return supported != null && supported.contains(capability);
+  }
+
+  /**
+   * True if the server has been seen to echo request IDs, so that a request
+   * can be kept in flight (e.g. by `subscribe`) without holding up others.
+   */
+  boolean serverPipelines(String host, int port) {
+    return Boolean.TRUE.equals(pipelining.get(host + ":" + port));
+  }
+
+  /**
+   * Like `submit`, but for requests that the server answers with any number
+   * of pending responses followed by a final one, e.g. a job status
+   * subscription. Only for servers that echo request IDs.
+   *
+   * `onUpdate` is called on the I/O thread with each pending response, so it
+   * must return quickly. The returned future completes with the final
+   * response, or exceptionally with a NoResponseException if there's no
+   * first response within the attempts that `policy` allows, or if it goes
+   * longer than SUBSCRIPTION_IDLE_TIMEOUT ms between responses after that.
+   */
+  CompletableFuture<AldaResponse> subscribe(String host, int port,
+                                            String requestId, String jobId,
+                                            ZMsg msg, RetryPolicy policy,
+                                            Consumer<AldaResponse> onUpdate) {
+    PendingRequest request = new PendingRequest(
+      host + ":" + port, requestId, jobId, msg, policy, false
+    );
+    request.onUpdate = onUpdate;
+    request.future.whenComplete((res, error) -> {
+      if (request.future.isCancelled()) {
+        cancellations.add(request);
+        wakeup();
+      }
+    });
+    submissions.add(request);
+    wakeup();
+    return request.future;
+  }
+
+  private void wakeup() {
+    // If a wakeup is already on its way, this request will be picked up along
+    // with the one that triggered it.
+    if (!wakeupPending.compareAndSet(false, true)) return;
+
+    // The sender socket is shared by all submitting threads, so sends must be
+    // serialized.
+    synchronized (wakeupSender) {
+      wakeupSender.send(WAKEUP, 0);
+    }
+  }
+
+  private void drainWakeups() {
+    wakeupPending.set(false);
+    while (wakeupReceiver.recv(ZMQ.DONTWAIT) != null) {}
+  }
+
+  private AldaConnection connection(String endpoint) {
+    AldaConnection connection = connections.get(endpoint);
+
+    if (connection == null) {
+      connection = new AldaConnection(endpoint, poller);
+      connections.put(endpoint, connection);
+    }
+
+    return connection;
+  }
+
+  private void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      PendingRequest submitted;
+      while ((submitted = submissions.poll()) != null) {
+        connection(submitted.endpoint).waiting.add(submitted);
+      }
+
+      PendingRequest cancelled;
+      while ((cancelled = cancellations.poll()) != null) {
+        removeCancelled(cancelled);
+      }
+
+      long now = System.currentTimeMillis();
+      long nextDeadline = now + IDLE_POLL_INTERVAL;
+
+      for (AldaConnection connection : connections.values()) {
+        sendWaiting(connection, now);
+        for (PendingRequest request : connection.inFlight.values()) {
+          nextDeadline = Math.min(nextDeadline, request.deadline);
+        }
+      }
+
+      if (poller.poll(Math.max(0, nextDeadline - now)) == -1) break;
+
+      if (poller.pollin(wakeupIndex)) drainWakeups();
+
+      for (AldaConnection connection : connections.values()) {
+        if (connection.readable()) receiveAll(connection);
+      }
+
+      now = System.currentTimeMillis();
+      for (AldaConnection connection : connections.values()) {
+        handleTimeouts(connection, now);
+      }
+    }
+
+    // We only get here if the I/O thread is interrupted, which shouldn't
+    // happen. Make sure nobody waits forever on a request we'll never send.
+    for (AldaConnection connection : connections.values()) {
+      for (PendingRequest request : connection.inFlight.values()) {
+        fail(request, new NoResponseException("Connection interrupted."));
+      }
+      for (PendingRequest request : connection.waiting) {
+        fail(request, new NoResponseException("Connection interrupted."));
+      }
+    }
+  }
+
+  // Stops waiting for replies to a cancelled subscription, so that it no
+  // longer takes up one of the connection's in-flight slots. (One that hasn't
+  // been sent yet is skipped by sendWaiting.) When the server doesn't echo
+  // request IDs, a late reply could be mistaken for the reply to the next
+  // request, so the subscription is left to time out instead.
+  private void removeCancelled(PendingRequest request) {
+    AldaConnection connection = connections.get(request.endpoint);
+    if (connection == null || !connection.pipelining) return;
+
+    if (connection.inFlight.remove(request.requestId, request)) {
+      request.msg.destroy();
+    }
+  }
+
+  // Sends as many waiting requests as the connection can have in flight,
+  // skipping any that the caller has already given up on.
+  private void sendWaiting(AldaConnection connection, long now) {
+    int capacity = connection.pipelining ? MAX_PIPELINED_REQUESTS : 1;
+
+    while (connection.inFlight.size() < capacity) {
+      PendingRequest request = connection.waiting.poll();
+      if (request == null) return;
+
+      if (request.future.isDone()) {
+        request.msg.destroy();
+        continue;
+      }
+
+      connection.inFlight.put(request.requestId, request);
+      request.giveUpAt = now + request.policy.deadline();
+      send(connection, request, now);
+    }
+  }
+
+  private void send(AldaConnection connection, PendingRequest request,
+                    long now) {
+    request.attempt++;
+    request.backingOff = false;
+    request.deadline = Math.min(
+      now + request.policy.attemptTimeout(request.attempt), request.giveUpAt
+    );
+    // false means don't destroy the message after sending; we might need to
+    // send it again.
+    request.msg.send(connection.socket(), false);
+    request.sentAt = now;
+  }
+
+  private void receiveAll(AldaConnection connection) {
+    ZMsg zmsg;
+    while ((zmsg = connection.recv()) != null) {
+      handleReply(connection, zmsg);
+    }
+  }
+
+  private void handleReply(AldaConnection connection, ZMsg zmsg) {
+    if (AldaRequest.getDebug()) zmsg.dump();
+
+    // A late reply to a request that we've already given up on.
+    if (connection.inFlight.isEmpty()) {
+      zmsg.destroy();
+      return;
+    }
+
+    AldaResponse response;
+    try {
+      zmsg.unwrap(); // discard envelope
+      response = AldaResponse.fromJson(zmsg.pop().getData());
+    } catch (RuntimeException e) {
+      // We can't tell which request this was meant for, so the best we can do
+      // is to report the error to the oldest one.
+      fail(removeOldest(connection), e);
+      return;
+    }
+
+    // A server that has been restarted (possibly as a different version) may
+    // no longer support what it did before, so we go by the latest response.
+    capabilities.put(connection.getEndpoint(),
+                     response.capabilities == null
+                       ? Collections.<String>emptySet()
+                       : new HashSet<String>(response.capabilities));
+
+    PendingRequest request = matchReply(connection, response);
+    pipelining.put(connection.getEndpoint(), connection.pipelining);
+
+    // Either a late reply to a request we've already given up on, or (for
+    // servers that don't echo request IDs) a reply for a different job. This
+    // does not count against the request's remaining retries, as the server
+    // did respond.
+    if (request == null) return;
+
+    // For subscriptions, only the first reply is a round trip.
+    if (!request.subscribed) {
+      AldaClientMetrics.recordRoundTrip(
+        System.currentTimeMillis() - request.sentAt
+      );
+    }
+
+    if (!response.noWorker)
+      response.workerAddress = zmsg.pop().getData();
+
+    if (request.onUpdate != null && response.pending) {
+      // More to come; keep the subscription in flight.
+      request.subscribed = true;
+      request.deadline = System.currentTimeMillis() + SUBSCRIPTION_IDLE_TIMEOUT;
+      connection.inFlight.put(request.requestId, request);
+      try {
+        request.onUpdate.accept(response);
+      } catch (RuntimeException e) {
+        connection.inFlight.remove(request.requestId);
+        fail(request, e);
+      }
+      return;
+    }
+
+    complete(request, response);
+  }
+
+  // Finds (and removes) the in-flight request that a reply belongs to, or
+  // returns null if there isn't one.
+  private PendingRequest matchReply(AldaConnection connection,
+                                    AldaResponse response) {
+    if (response.requestId != null) {
+      connection.pipelining = true;
+      return connection.inFlight.remove(response.requestId);
+    }
+
+    // The server didn't echo the request ID. It's only safe to have one
+    // request in flight when talking to such a server.
+    connection.pipelining = false;
+
+    PendingRequest request = connection.inFlight.values().iterator().next();
+
+    // If the request has a jobId, we ignore any response from the server that
+    // doesn't have the same jobId.
+    if (request.jobId != null &&
+        response.jobId != null &&
+        !request.jobId.equals(response.jobId))
+      return null;
+
+    return connection.inFlight.remove(request.requestId);
+  }
+
+  private PendingRequest removeOldest(AldaConnection connection) {
+    PendingRequest oldest = connection.inFlight.values().iterator().next();
+    return connection.inFlight.remove(oldest.requestId);
+  }
+
+  private void handleTimeouts(AldaConnection connection, long now) {
+    List<PendingRequest> expired = new ArrayList<PendingRequest>();
+    for (PendingRequest request : connection.inFlight.values()) {
+      if (now >= request.deadline) expired.add(request);
+    }
+
+    if (expired.isEmpty()) return;
+
+    // When the server doesn't echo request IDs, it might still reply late, so
+    // we start over with a fresh socket rather than risk reading that reply as
+    // the response to a later request. Otherwise, a late reply will be
+    // recognized and discarded, so there's no need.
+    if (!connection.pipelining) {
+      boolean attemptTimedOut = false;
+      for (PendingRequest request : expired) {
+        if (!request.backingOff) attemptTimedOut = true;
+      }
+      if (attemptTimedOut) connection.markFailed();
+    }
+
+    for (PendingRequest request : expired) {
+      if (request.subscribed) {
+        connection.inFlight.remove(request.requestId);
+        fail(request, new NoResponseException(
+          "Timed out waiting for an update from the server."
+        ));
+        continue;
+      }
+
+      if (request.backingOff) {
+        AldaClientMetrics.recordRetry();
+        send(connection, request, now);
+        continue;
+      }
+
+      long delay = request.policy.backoff(request.attempt);
+
+      if (request.attempt >= request.policy.maxRetries() ||
+          now + delay >= request.giveUpAt) {
+        connection.inFlight.remove(request.requestId);
+        AldaClientMetrics.recordTimeout();
+        fail(request, new NoResponseException(SERVER_DOWN_MSG));
+      } else if (delay <= 0) {
+        AldaClientMetrics.recordRetry();
+        send(connection, request, now);
+      } else {
+        // The request stays in flight while we wait, so that (when the server
+        // echoes request IDs) a late reply to the last attempt still counts.
+        request.backingOff = true;
+        request.deadline = now + delay;
+      }
+    }
+  }
+
+  private void complete(PendingRequest request, AldaResponse response) {
+    request.msg.destroy();
+    if (request.completeInline) {
+      request.future.complete(response);
+    } else {
+      completions.execute(() -> request.future.complete(response));
+    }
+  }
+
+  private void fail(PendingRequest request, Throwable error) {
+    request.msg.destroy();
+    if (request.completeInline) {
+      request.future.completeExceptionally(error);
+    } else {
+      completions.execute(() -> request.future.completeExceptionally(error));
+    }
+  }
+}
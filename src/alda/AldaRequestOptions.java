@@ -1,10 +1,38 @@
 package alda;
 
+import java.util.List;
+
 public class AldaRequestOptions {
   public String filename;
   public String from;
   public String to;
   public String history;
+  // For play requests from the REPL: the session whose score the input is
+  // evaluated on top of (see ReplSession).
+  public String session;
+  // Identifies a play/export job. Also serves as the request's idempotency key:
+  // retries of the same request carry the same jobId.
   public String jobId;
   public String output;
+  // For job-status requests: when true, the worker pushes each change in the
+  // job's status until it's done, instead of replying once. For status
+  // requests: when true, the server replies again once it has a worker
+  // available.
+  public Boolean subscribe;
+  // For job-status-batch requests: the jobs to report on.
+  public List<JobRef> jobs;
+
+  /**
+   * A job on a particular worker. The worker address is base64-encoded, as it
+   * is binary.
+   */
+  public static class JobRef {
+    public String workerAddress;
+    public String jobId;
+
+    public JobRef(String workerAddress, String jobId) {
+      this.workerAddress = workerAddress;
+      this.jobId = jobId;
+    }
+  }
 }
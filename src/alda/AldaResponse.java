@@ -4,7 +4,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.google.gson.Gson;
 import com.google.gson.annotations.SerializedName;
 
 public class AldaResponse {
@@ -13,12 +12,22 @@ public class AldaResponse {
   public String signal;
   public String body;
   public String jobId;
+  public String requestId;
   public AldaScore score;
   public List<String> instruments;
+  // For status requests, from servers with the "structured-status"
+  // capability.
+  public AldaServerStatus serverStatus;
+  // Optional protocol features that the server supports, e.g. "deflate". A
+  // server that supports any includes them in every response.
+  public List<String> capabilities;
+  // For job-status-batch requests: the status of each job asked about, as
+  // it would be reported by a job-status request.
+  public List<AldaResponse> jobs;
   public byte[] workerAddress;
   public boolean noWorker;
 
-  public class AldaScore {
+  public static class AldaScore {
     @SerializedName("chord-mode")
     public Boolean chordMode;
     @SerializedName("current-instruments")
@@ -39,16 +48,26 @@ public class AldaResponse {
     }
   }
 
+  /**
+   * True if this is a status update for the job with this ID, and not e.g. a
+   * late reply about a previous job.
+   */
+  public boolean isAboutJob(String jobId) {
+    return this.jobId != null && this.jobId.equals(jobId);
+  }
+
   public static AldaResponse fromJson(String json) {
-    Gson gson = new Gson();
-    return gson.fromJson(json, AldaResponse.class);
+    return AldaCodec.responseFromJson(json);
+  }
+
+  public static AldaResponse fromJson(byte[] json) {
+    return AldaCodec.responseFromJson(json);
   }
 
   /**
    * Returns an alda score corresponding to the given json
    */
   public static AldaScore fromJsonScore(String json) {
-    Gson gson = new Gson();
-    return gson.fromJson(json, AldaScore.class);
+    return AldaCodec.scoreFromJson(json);
   }
 }
@@ -0,0 +1,15 @@
+package alda;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A summary of a score, as displayed by the REPL's :info command.
+ */
+public class AldaScoreInfo {
+  public List<String> instruments = new ArrayList<String>();
+  public List<String> currentInstruments = new ArrayList<String>();
+  public int events = 0;
+  // in order of their offsets in the score
+  public List<String> markers = new ArrayList<String>();
+}
@@ -1,19 +1,25 @@
 package alda;
 
+import alda.error.AldaException;
 import alda.error.AlreadyUpException;
 import alda.error.InvalidOptionsException;
 import alda.error.NoAvailableWorkerException;
 import alda.error.NoResponseException;
 import alda.error.ParseError;
+import alda.error.SessionLostException;
 import alda.error.SystemException;
 import alda.error.UnsuccessfulException;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.SystemUtils;
 
@@ -22,64 +28,241 @@ import static org.fusesource.jansi.Ansi.*;
 import static org.fusesource.jansi.Ansi.Color.*;
 
 public class AldaServer extends AldaProcess {
-  private static final int PING_TIMEOUT = 100; // ms
-  private static final int PING_RETRIES = 5;
-  private static final int STARTUP_RETRY_INTERVAL = 250; // ms
-  private static final int SHUTDOWN_RETRY_INTERVAL = 250; // ms
-  private static final int STATUS_RETRY_INTERVAL = 200;  // ms
-  private static final int STATUS_RETRIES = 10;
-  private static final int JOB_STATUS_INTERVAL = 250;   // ms
-
-  // Relevant to playing input from the REPL.
-  private static final int BUSY_WORKER_TIMEOUT = 10000;      // ms
-  private static final int BUSY_WORKER_RETRY_INTERVAL = 500; // ms
+  // Shared by all servers in this process, so that what it learns about how
+  // long jobs take carries over from one job to the next.
+  private static final JobStatusPoller DEFAULT_JOB_STATUS_POLLER =
+    new AdaptiveJobStatusPoller();
+
+  private volatile JobStatusPoller jobStatusPoller = DEFAULT_JOB_STATUS_POLLER;
+
+  // Servers with this capability recognize a play/export request whose jobId
+  // they have already seen, and reply about the existing job instead of
+  // starting another one.
+  static final String IDEMPOTENT_JOBS = "idempotent-jobs";
+  // The signal in such a reply.
+  static final String DUPLICATE_JOB_SIGNAL = "duplicate-job";
+
+  // Servers with this capability can push job status updates to the client
+  // as they happen (see subscribeToJobStatus).
+  static final String JOB_STATUS_PUSH = "job-status-push";
+
+  // Servers with this capability can stop a job part way through (see
+  // JobHandle.cancel).
+  static final String CANCEL_JOB = "cancel-job";
+
+  // Servers with this capability answer a status request that has `subscribe`
+  // set once they have a worker available, rather than right away (see
+  // waitForWorker).
+  static final String WORKER_READY_PUSH = "worker-ready-push";
+
+  // Servers with this capability can have a worker keep a REPL's score
+  // between requests (see ReplSession).
+  static final String REPL_SESSIONS = "repl-sessions";
+  // The signal in the reply to a request for a session that the worker
+  // doesn't have.
+  static final String UNKNOWN_SESSION_SIGNAL = "unknown-session";
+
+  private volatile AldaHeartbeat heartbeat;
+
+  // The port that clients are given. After a blue/green restart, the server
+  // can be listening on another port (`port`); see ServerRoutes.
+  private final int publicPort;
+
+  private final JvmProfile jvmProfile;
 
   public AldaServer(AldaServerOptions opts) {
-    host    = normalizeHost(opts.host);
-    port    = opts.port;
-    timeout = opts.timeout;
-    verbose = opts.verbose;
-    quiet   = opts.quiet;
-    noColor = opts.noColor;
+    host       = normalizeHost(opts.host);
+    publicPort = opts.port;
+    // Routes are only for servers on this host.
+    port       = isLocalHost() ? ServerRoutes.resolve(opts.port) : opts.port;
+    timeout    = opts.timeout;
+    verbose    = opts.verbose;
+    quiet      = opts.quiet;
+    noColor    = opts.noColor;
+    jvmProfile = opts.jvmProfile == null ? JvmProfile.NONE : opts.jvmProfile;
 
     if (!noColor) AnsiConsole.systemInstall();
   }
 
-  // Calculate the number of retries before giving up, based on a fixed retry
-  // interval and the desired overall timeout in seconds.
-  private int calculateRetries(int timeout, int interval) {
-    int retriesPerSecond = 1000 / interval;
-    return timeout * retriesPerSecond;
+  // Another server with the same settings, listening on `port`. Until
+  // clients are routed to it, it's a server in its own right on that port: it
+  // doesn't take over the other server's public port or its route.
+  private AldaServer(AldaServer other, int port) {
+    host       = other.host;
+    publicPort = port;
+    this.port  = port;
+    timeout    = other.timeout;
+    verbose    = other.verbose;
+    quiet      = other.quiet;
+    noColor    = other.noColor;
+    jvmProfile = other.jvmProfile;
+  }
+
+  // The policy for one of the loops below that wait for something to happen,
+  // which give up after `timeout` seconds.
+  private RetryPolicy waitPolicy(String name) {
+    RetryPolicy policy = RetryPolicies.get(name);
+
+    if (policy instanceof ExponentialBackoff) {
+      return ((ExponentialBackoff) policy).withDeadline(timeout * 1000L);
+    }
+
+    return policy;
   }
 
-  private boolean ping(int timeout, int retries) throws NoResponseException {
+  private boolean ping(RetryPolicy policy) throws NoResponseException {
     AldaRequest req = new AldaRequest(this.host, this.port);
     req.command = "ping";
-    AldaResponse res = req.send(timeout, retries);
+    AldaResponse res = req.send(policy);
     return res.success;
   }
 
-  public boolean checkForConnection(int timeout, int retries) {
+  private boolean checkForConnection(RetryPolicy policy) {
     try {
-      return ping(timeout, retries);
+      return ping(policy);
     } catch (NoResponseException e) {
       return false;
     }
   }
 
+  public boolean checkForConnection(int timeout, int retries) {
+    return checkForConnection(ExponentialBackoff.fixed(timeout, retries));
+  }
+
+  /**
+   * Returns whether the server is up.
+   *
+   * If a heartbeat is running (see startHeartbeat), this returns immediately,
+   * based on the most recent heartbeat. Otherwise, it pings the server.
+   */
   public boolean checkForConnection() {
-    return checkForConnection(PING_TIMEOUT, PING_RETRIES);
+    AldaHeartbeat heartbeat = this.heartbeat;
+
+    if (heartbeat != null) {
+      AldaHeartbeat.Liveness liveness = heartbeat.getLiveness();
+      if (liveness != AldaHeartbeat.Liveness.UNKNOWN)
+        return liveness != AldaHeartbeat.Liveness.DOWN;
+    }
+
+    return pingForConnection();
+  }
+
+  // Like checkForConnection, but always pings the server, for when the answer
+  // has to be current (e.g. before starting or stopping a server).
+  private boolean pingForConnection() {
+    return checkForConnection(RetryPolicies.get("ping"));
+  }
+
+  /**
+   * Starts pinging the server in the background every `interval` ms, so that
+   * `checkForConnection()` can answer right away. If a heartbeat is already
+   * running, returns it.
+   */
+  public synchronized AldaHeartbeat startHeartbeat(int interval) {
+    if (heartbeat == null) {
+      heartbeat = new AldaHeartbeat(host, port, interval);
+      heartbeat.start();
+    }
+
+    return heartbeat;
+  }
+
+  public synchronized void stopHeartbeat() {
+    if (heartbeat != null) {
+      heartbeat.stop();
+      heartbeat = null;
+    }
+  }
+
+  // Called after starting or stopping the server, so that checkForConnection
+  // doesn't answer based on a heartbeat from before.
+  private void resetHeartbeat() {
+    AldaHeartbeat heartbeat = this.heartbeat;
+    if (heartbeat != null) heartbeat.reset();
+  }
+
+  /**
+   * The running heartbeat, or null if there isn't one.
+   */
+  public AldaHeartbeat getHeartbeat() {
+    return heartbeat;
   }
 
   // Waits until the process is confirmed to be up, or we reach the timeout.
   //
   // Throws a NoResponseException if the timeout is reached.
   public void waitForConnection() throws NoResponseException {
-    int retries = calculateRetries(timeout, STARTUP_RETRY_INTERVAL);
+    RetryPolicy.Attempts attempts =
+      waitPolicy(RetryPolicies.SERVER_STARTUP).start();
+
+    while (attempts.next()) {
+      if (checkForConnection(attempts.timeout(), 0)) return;
+    }
+
+    throw new NoResponseException(
+      "Timed out waiting for response from the server."
+    );
+  }
+
+  // Waits until the server has a worker available, or we reach the timeout.
+  //
+  // If the server can tell us as soon as a worker is available, we wait for
+  // that. Otherwise, or if it stops sending updates, we poll for the status.
+  //
+  // Throws a NoResponseException if the timeout is reached.
+  public void waitForWorker() throws NoResponseException {
+    long giveUpAt = System.currentTimeMillis() + timeout * 1000L;
+
+    if (canSubscribe(WORKER_READY_PUSH) && awaitWorkerReady(giveUpAt)) {
+      return;
+    }
+
+    RetryPolicy.Attempts attempts =
+      waitPolicy(RetryPolicies.WORKER_STARTUP).start();
+
+    while (attempts.next() && System.currentTimeMillis() < giveUpAt) {
+      AldaServerStatus status =
+        AldaServerStatus.fromResponse(statusRequest().send());
+      if (status != null && status.isReady()) return;
+    }
+
+    throw new NoResponseException(
+      "Timed out waiting for a worker process to start."
+    );
+  }
 
-    if (!checkForConnection(STARTUP_RETRY_INTERVAL, retries)) {
+  // Asks the server to tell us when it has a worker available, and waits for
+  // it to do so. Returns false if it stops sending updates first.
+  private boolean awaitWorkerReady(long giveUpAt) throws NoResponseException {
+    AldaRequest req = statusRequest();
+    req.options = new AldaRequestOptions();
+    req.options.subscribe = true;
+
+    // The server may not reply until it has a worker, so the request is sent
+    // once and given until `giveUpAt`; sending it again would only start
+    // another subscription.
+    long remaining = Math.max(1, giveUpAt - System.currentTimeMillis());
+    CompletableFuture<AldaResponse> ready = req.subscribe(
+      ExponentialBackoff.fixed((int) Math.min(remaining, Integer.MAX_VALUE), 0),
+      update -> {}
+    );
+
+    try {
+      AldaResponse res = ready.get(remaining, TimeUnit.MILLISECONDS);
+      AldaServerStatus status = AldaServerStatus.fromResponse(res);
+      return status != null && status.isReady();
+    } catch (TimeoutException e) {
+      // Also removes the subscription from the dispatcher.
+      ready.cancel(false);
       throw new NoResponseException(
-        "Timed out waiting for response from the server."
+        "Timed out waiting for a worker process to start."
+      );
+    } catch (ExecutionException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException(
+        "Interrupted while waiting for a worker process to start."
       );
     }
   }
@@ -91,17 +274,70 @@ public class AldaServer extends AldaProcess {
   // Throws a NoResponseException if the process is still pingable after the
   // timeout.
   public void waitForLackOfConnection() throws NoResponseException {
-    int retries = calculateRetries(timeout, SHUTDOWN_RETRY_INTERVAL);
+    RetryPolicy.Attempts attempts =
+      waitPolicy(RetryPolicies.SERVER_SHUTDOWN).start();
 
-    while (retries >= 0) {
+    while (attempts.next()) {
       try {
-        if (!ping(SHUTDOWN_RETRY_INTERVAL, 0)) return;
+        if (!ping(ExponentialBackoff.fixed(attempts.timeout(), 0))) return;
       } catch (NoResponseException e) {
         return;
       }
+    }
+
+    throw new NoResponseException(
+      "Timed out waiting for the server to shut down."
+    );
+  }
+
+  // Waits until the server process with this PID has exited, or we reach the
+  // timeout.
+  //
+  // Without a PID, or a way to watch it on this platform, waits until the
+  // server stops responding to pings and its RunRegistry entry is gone.
+  //
+  // Throws a NoResponseException if the timeout is reached.
+  public void waitForExit(int pid) throws NoResponseException {
+    CompletableFuture<Void> exited =
+      pid > 0 ? ProcessWatcher.onExit(pid) : null;
+
+    if (exited == null) {
+      waitForLackOfConnection();
+      waitForProcessToDisappear();
+      return;
+    }
+
+    try {
+      exited.get(timeout * 1000L, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      exited.cancel(false);
+      throw new NoResponseException(
+        "Timed out waiting for the server to shut down."
+      );
+    } catch (ExecutionException e) {
+      waitForLackOfConnection();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException(
+        "Interrupted while waiting for the server to shut down."
+      );
+    }
+  }
 
-      Util.sleep(SHUTDOWN_RETRY_INTERVAL);
-      retries--;
+  private void waitForProcessToDisappear() throws NoResponseException {
+    if (!SystemUtils.IS_OS_UNIX || !isLocalHost()) return;
+
+    RetryPolicy.Attempts attempts =
+      waitPolicy(RetryPolicies.SERVER_SHUTDOWN).start();
+
+    while (attempts.next()) {
+      try {
+        if (!AldaClient.checkForExistingServer(port)) return;
+      } catch (SystemException e) {
+        // We can't tell, so we'll have to take the lack of response to pings
+        // as good enough.
+        return;
+      }
     }
 
     throw new NoResponseException(
@@ -109,6 +345,25 @@ public class AldaServer extends AldaProcess {
     );
   }
 
+  // The PID of the server process, or -1 if it can't be found, e.g. because
+  // it's on another host.
+  private int findPid() {
+    if (!isLocalHost()) return -1;
+
+    try {
+      pid = AldaClient.findServerPid(port);
+    } catch (SystemException e) {
+      pid = -1;
+    }
+
+    return pid;
+  }
+
+  // The port that clients are given (see publicPort).
+  int getPublicPort() {
+    return publicPort;
+  }
+
   private static String normalizeHost(String host) {
     // trim leading/trailing whitespace and trailing "/"
     host = host.trim().replaceAll("/$", "");
@@ -119,10 +374,12 @@ public class AldaServer extends AldaProcess {
     return host;
   }
 
-  private void assertNotRemoteHost() throws InvalidOptionsException {
-    String hostWithoutProtocol = host.replaceAll("tcp://", "");
+  private boolean isLocalHost() {
+    return host.replaceAll("tcp://", "").equals("localhost");
+  }
 
-    if (!hostWithoutProtocol.equals("localhost")) {
+  private void assertNotRemoteHost() throws InvalidOptionsException {
+    if (!isLocalHost()) {
       throw new InvalidOptionsException(
           "Alda servers cannot be started remotely.");
     }
@@ -136,6 +393,10 @@ public class AldaServer extends AldaProcess {
     if (quiet)
       return;
 
+    print(message);
+  }
+
+  private void print(String message) {
     String hostWithoutProtocol = host.replaceAll("tcp://", "");
 
     String prefix;
@@ -167,11 +428,8 @@ public class AldaServer extends AldaProcess {
       prefix = ansi().fg(RED).a("ERROR ").reset().toString();
     }
 
-    // save and restore quiet value to print out errors
-    boolean oldQuiet = quiet;
-    quiet = false;
-    msg(prefix + message);
-    quiet = oldQuiet;
+    // errors are printed even when quiet
+    print(prefix + message);
   }
 
   private final String CHECKMARK = "\u2713";
@@ -210,9 +468,20 @@ public class AldaServer extends AldaProcess {
   public void upBg(int numberOfWorkers)
     throws InvalidOptionsException, NoResponseException, AlreadyUpException,
            SystemException {
+    checkCanStart();
+    fork(numberOfWorkers);
+    awaitReady();
+  }
+
+  // The steps of upBg, which ServerGroup also uses to start several servers
+  // at once.
+
+  // Throws if this server can't be started, e.g. because it's already up.
+  void checkCanStart()
+    throws InvalidOptionsException, AlreadyUpException {
     assertNotRemoteHost();
 
-    boolean serverAlreadyUp = checkForConnection();
+    boolean serverAlreadyUp = pingForConnection();
     if (serverAlreadyUp) {
       throw new AlreadyUpException("Server already up.");
     }
@@ -220,7 +489,7 @@ public class AldaServer extends AldaProcess {
     boolean serverAlreadyTryingToStart;
     try {
       serverAlreadyTryingToStart = SystemUtils.IS_OS_UNIX &&
-                                   AldaClient.checkForExistingServer(port);
+                                   AldaClient.checkForExistingServer(publicPort);
     } catch (SystemException e) {
       System.out.println("WARNING: Unable to detect whether or not there is " +
                          "already a server running on that port.");
@@ -233,6 +502,16 @@ public class AldaServer extends AldaProcess {
         "patient -- this can take a while."
       );
     }
+  }
+
+  // Starts the server process in the background.
+  void fork(int numberOfWorkers) throws SystemException {
+    // The server that clients were routed to is gone; start a new one on the
+    // usual port.
+    if (port != publicPort) {
+      ServerRoutes.clear(publicPort);
+      port = publicPort;
+    }
 
     Object[] opts = {"--host", host,
                      "--port", Integer.toString(port),
@@ -240,10 +519,9 @@ public class AldaServer extends AldaProcess {
                      "--alda-fingerprint"};
 
     try {
-      Util.forkProgram(Util.conj(opts, "server"));
+      Process p = Util.forkProgram(jvmProfile, Util.conj(opts, "server"));
       msg("Starting Alda server...");
-      waitForConnection();
-      announceServerUp();
+      register(Util.pidOf(p));
     } catch (URISyntaxException e) {
       throw new SystemException(
         String.format("Unable to fork '%s' into the background."), e
@@ -251,43 +529,99 @@ public class AldaServer extends AldaProcess {
     } catch (IOException e) {
       throw new SystemException("Unable to fork a background process.", e);
     }
+  }
+
+  // Waits for the server we've just started to be up, with a worker ready.
+  void awaitReady() throws NoResponseException {
+    resetHeartbeat();
+    waitForConnection();
+    announceServerUp();
 
     msg("Starting worker processes...");
+    waitForWorker();
+    announceReady();
+    setRegisteredState(RunRegistry.UP);
+  }
 
-    int workersAvailable = 0;
-    while (workersAvailable == 0) {
-      Util.sleep(STARTUP_RETRY_INTERVAL);
-      AldaRequest req = new AldaRequest(host, port);
-      req.command = "status";
-      AldaResponse res = req.send();
-      if (res.body.contains("Server up")) {
-        Matcher a = Pattern.compile("(\\d+)/\\d+ workers available")
-                           .matcher(res.body);
-        if (a.find()) {
-          workersAvailable = Integer.parseInt(a.group(1));
-        }
-      }
+  // Records the server that we've just started in the RunRegistry (unless it
+  // has beaten us to it), so that it shows up as starting.
+  private void register(int pid) {
+    try {
+      RunRegistry.register(
+        new RunRegistry.Entry("server", port, pid, RunRegistry.STARTING), true
+      );
+    } catch (SystemException e) {
+      System.out.println("WARNING: " + e.getMessage());
     }
+  }
 
-    announceReady();
+  private void setRegisteredState(String state) {
+    // The registry is only for servers on this host.
+    if (!isLocalHost()) return;
+
+    try {
+      RunRegistry.setServerState(port, state);
+    } catch (SystemException e) {
+      System.out.println("WARNING: " + e.getMessage());
+    }
   }
 
   public void upFg(int numberOfWorkers) throws InvalidOptionsException {
     assertNotRemoteHost();
 
-    Object[] args = {numberOfWorkers, port, verbose};
+    // The server listens on the port it was given, even if clients of that
+    // port are still routed to the server that this one is replacing.
+    port = publicPort;
+
+    try {
+      RunRegistry.registerSelf("server", port, RunRegistry.STARTING);
+
+      // Marks the server as up once it's answering requests.
+      Util.daemonThreadFactory("alda-run-registry").newThread(() -> {
+        try {
+          waitForConnection();
+          setRegisteredState(RunRegistry.UP);
+        } catch (NoResponseException e) {
+          // It stays "starting", which is true enough.
+        }
+      }).start();
+    } catch (SystemException e) {
+      System.out.println("WARNING: " + e.getMessage());
+    }
+
+    start(numberOfWorkers);
+  }
 
+  // Runs the server itself (alda.server) on `port`, until it's stopped.
+  protected void start(int numberOfWorkers) {
+    Object[] args = {numberOfWorkers, port, verbose};
     Util.callClojureFn("alda.server/start-server!", args);
   }
 
   public void down() throws NoResponseException {
-    boolean serverAlreadyDown = !checkForConnection();
+    boolean serverAlreadyDown = !pingForConnection();
     if (serverAlreadyDown) {
       msg("Server already down.");
       return;
     }
 
+    stopServer();
+
+    // The next server will start on the usual port.
+    if (port != publicPort) {
+      try {
+        ServerRoutes.clear(publicPort);
+      } catch (SystemException e) {
+        error(e.getMessage());
+      }
+    }
+  }
+
+  private void stopServer() throws NoResponseException {
     msg("Stopping Alda server...");
+    resetHeartbeat();
+    // The server removes its entry when it exits.
+    setRegisteredState(RunRegistry.STOPPING);
 
     AldaRequest req = new AldaRequest(host, port);
     req.command = "stop-server";
@@ -307,32 +641,197 @@ public class AldaServer extends AldaProcess {
   public void downUp(int numberOfWorkers)
     throws NoResponseException, AlreadyUpException, InvalidOptionsException,
            SystemException {
+    int pid = findPid();
     down();
 
-    waitForLackOfConnection();
-    // The process can still hang around sometimes, causing upBg to fail if we
-    // try to do it too soon. Giving it a little extra time here as a buffer.
-    Util.sleep(1000);
+    // Until the process has exited, upBg would take it for a server that's
+    // still starting up.
+    waitForExit(pid);
 
     System.out.println();
     upBg(numberOfWorkers);
   }
 
-  public void status() {
+  /**
+   * Restarts the server without any downtime: starts a replacement server on
+   * another port and waits for it to have a worker ready, then routes clients
+   * to it (see ServerRoutes), and finally lets the old server finish what
+   * it's doing and stops it.
+   *
+   * The replacement listens on the public port if it's free (i.e. the old
+   * server was itself a replacement), and on a random open port otherwise.
+   *
+   * Clients that are created afterwards use the replacement. Those that were
+   * already running (e.g. a REPL) keep the port they started with (see
+   * ServerRoutes), so they lose their server when the old one stops.
+   */
+  public void downUpBlueGreen(int numberOfWorkers)
+    throws NoResponseException, AlreadyUpException, InvalidOptionsException,
+           SystemException {
+    assertNotRemoteHost();
+
+    if (!pingForConnection()) {
+      msg("Server not up; starting a new one.");
+      upBg(numberOfWorkers);
+      return;
+    }
+
+    int standbyPort = port == publicPort ? Util.findOpenPort() : publicPort;
+    AldaServer standby = new AldaServer(this, standbyPort);
+
+    msg("Starting a replacement server on port " + standbyPort + "...");
+    standby.upBg(numberOfWorkers);
+
+    // Only now that the replacement answers do clients move over to it.
+    ServerRoutes.route(publicPort, standbyPort);
+    msg("Clients of port " + publicPort + " now use the new server.");
+
+    int pid = findPid();
+    drain();
+    stopServer();
+    waitForExit(pid);
+
+    port = standbyPort;
+  }
+
+  // Waits for the server to finish the work it has (e.g. a score that's
+  // playing) before it's stopped, for up to `timeout` seconds. Only servers
+  // with the "structured-status" capability say how busy they are; others are
+  // stopped right away.
+  private void drain() {
+    RetryPolicy.Attempts attempts =
+      waitPolicy(RetryPolicies.SERVER_DRAIN).start();
+
+    while (attempts.next()) {
+      try {
+        AldaServerStatus status = getServerStatus();
+        if (status.workersBusy == null || status.queueDepth == null ||
+            (status.workersBusy == 0 && status.queueDepth == 0)) {
+          return;
+        }
+      } catch (NoResponseException | UnsuccessfulException e) {
+        return;
+      }
+    }
+  }
+
+  private AldaRequest statusRequest() {
     AldaRequest req = new AldaRequest(host, port);
     req.command = "status";
+    return req;
+  }
 
+  public void status() {
     try {
-      AldaResponse res = req.send(STATUS_RETRY_INTERVAL, STATUS_RETRIES);
-      if (!res.success) throw new UnsuccessfulException(res.body);
-      msg(res.body);
+      reportStatus(statusRequest().send());
     } catch (NoResponseException e) {
       announceServerDown();
-    } catch (UnsuccessfulException e) {
+    }
+  }
+
+  // Requests the server's status without waiting for it, e.g. to probe
+  // several servers at once (see AldaClient.listProcesses).
+  CompletableFuture<AldaResponse> statusAsync() {
+    return statusRequest().sendAsync();
+  }
+
+  // Waits until `giveUpAt` (ms since the epoch) for the response to
+  // statusAsync, and prints it like `status`.
+  void reportStatus(CompletableFuture<AldaResponse> status, long giveUpAt) {
+    long remaining = Math.max(0, giveUpAt - System.currentTimeMillis());
+
+    try {
+      reportStatus(status.get(remaining, TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      status.cancel(false);
+      announceServerDown();
+    } catch (ExecutionException e) {
+      announceServerDown();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      announceServerDown();
+    }
+  }
+
+  private void reportStatus(AldaResponse res) {
+    if (res.success) {
+      msg(res.body);
+    } else {
       msg("Unable to report status.");
     }
   }
 
+  /**
+   * Prints a StatusReport for the server, as "json" or "prometheus" text.
+   *
+   * This is meant to be called often (e.g. every few seconds, by a monitoring
+   * system), so it makes a single status request, on the connection that's
+   * already open to the server, if there is one.
+   *
+   * The client counters are left out: they're per-process, and this process
+   * has made no requests but this one.
+   */
+  public void status(String format) {
+    StatusReport report = getStatusReport(false);
+
+    switch (format) {
+      case "json":
+        System.out.println(report.toJson());
+        break;
+      case "prometheus":
+        System.out.print(report.toPrometheus());
+        break;
+      default:
+        status();
+    }
+  }
+
+  /**
+   * The server's status, along with the counters of the client in this
+   * process (see AldaClientMetrics). If the server doesn't respond, the
+   * report says that it's down.
+   */
+  public StatusReport getStatusReport() {
+    return getStatusReport(true);
+  }
+
+  private StatusReport getStatusReport(boolean clientMetrics) {
+    AldaResponse res = null;
+    Long rtt = null;
+
+    try {
+      long start = System.nanoTime();
+      res = statusRequest().send();
+      rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    } catch (NoResponseException e) {
+      // The server is down.
+    }
+
+    // Taken after the request, so that the counters include it.
+    StatusReport report = clientMetrics
+                            ? StatusReport.withClientMetrics(host, port)
+                            : StatusReport.forServer(host, port);
+    report.rtt = rtt;
+    report.up = res != null && res.success;
+    if (report.up) report.server = AldaServerStatus.fromResponse(res);
+    return report;
+  }
+
+  /**
+   * The server's status, e.g. how many of its workers are available.
+   */
+  public AldaServerStatus getServerStatus()
+    throws NoResponseException, UnsuccessfulException {
+    AldaResponse res = statusRequest().send();
+    AldaServerStatus status = AldaServerStatus.fromResponse(res);
+
+    if (!res.success || status == null) {
+      throw new UnsuccessfulException(res.body);
+    }
+
+    return status;
+  }
+
   public void version() throws NoResponseException {
     AldaRequest req = new AldaRequest(host, port);
     req.command = "version";
@@ -360,7 +859,21 @@ public class AldaServer extends AldaProcess {
   public AldaResponse play(String code, String history, String from, String to)
     throws NoAvailableWorkerException, UnsuccessfulException,
            NoResponseException {
+    return awaitAsyncResponse(playRequest(code, history, from, to));
+  }
+
+  /**
+   * Like `play`, but returns as soon as the job has been submitted. The
+   * caller can follow the job's progress and wait for it to finish through
+   * the returned handle.
+   */
+  public JobHandle playAsync(String code, String history, String from,
+                             String to) {
+    return submitJob(playRequest(code, history, from, to));
+  }
 
+  private AldaRequest playRequest(String code, String history, String from,
+                                  String to) {
     AldaRequest req = new AldaRequest(host, port);
     req.command = "play";
     req.body = code;
@@ -378,50 +891,165 @@ public class AldaServer extends AldaProcess {
       req.options.history = history;
     }
 
-    return awaitAsyncResponse(req);
+    return req;
   }
 
   public AldaResponse playFromRepl(String input, String history, String from,
                                    String to)
     throws NoAvailableWorkerException, UnsuccessfulException,
            NoResponseException {
-    int retries = BUSY_WORKER_TIMEOUT / BUSY_WORKER_RETRY_INTERVAL;
-    return playFromRepl(input, history, from, to, retries);
+    return playFromRepl(input, history, from, to,
+                        RetryPolicies.get(RetryPolicies.BUSY_WORKER));
   }
 
   public AldaResponse playFromRepl(String input, String history, String from,
                                    String to, int retries)
     throws NoAvailableWorkerException, UnsuccessfulException,
            NoResponseException {
+    RetryPolicy policy = RetryPolicies.get(RetryPolicies.BUSY_WORKER);
+
+    if (policy instanceof ExponentialBackoff) {
+      policy = ((ExponentialBackoff) policy).withMaxRetries(retries);
+    }
+
+    return playFromRepl(input, history, from, to, policy);
+  }
+
+  private AldaResponse playFromRepl(String input, String history, String from,
+                                    String to, RetryPolicy policy)
+    throws NoAvailableWorkerException, UnsuccessfulException,
+           NoResponseException {
     // Placeholder exception; we should never see this get thrown.
     String msg = "Unexpected error trying to play input from the Alda REPL.";
     NoAvailableWorkerException error = new NoAvailableWorkerException(msg);
 
-    // Retry until we get a NoAvailableWorkerException `retries` times.
-    while (retries >= 0) {
+    // Retry while we get a NoAvailableWorkerException, for as long as the
+    // policy allows.
+    RetryPolicy.Attempts attempts = policy.start();
+    while (attempts.next()) {
       try {
         return play(input, history.toString(), from, to);
       } catch (NoAvailableWorkerException e) {
         error = e;
-        Util.sleep(BUSY_WORKER_RETRY_INTERVAL);
-        retries--;
       }
     }
 
     // Throw the most recent NoAvailableWorkerException before we ran out of
-    // retries.
+    // attempts.
     throw error;
   }
 
+  /**
+   * Plays a line of input from the REPL on top of the score so far.
+   *
+   * If the server supports REPL sessions, the history is only sent when the
+   * session's worker doesn't already have it; otherwise, this is the same as
+   * `playFromRepl(input, history, null, null)`.
+   *
+   * @param input The line to play
+   * @param history The REPL's inputs so far, each followed by a newline
+   * @param session The REPL's session
+   */
+  public AldaResponse playFromRepl(String input, CharSequence history,
+                                   ReplSession session)
+    throws NoAvailableWorkerException, UnsuccessfulException,
+           NoResponseException {
+    String msg = "Unexpected error trying to play input from the Alda REPL.";
+    NoAvailableWorkerException error = new NoAvailableWorkerException(msg);
+
+    RetryPolicy.Attempts attempts =
+      RetryPolicies.get(RetryPolicies.BUSY_WORKER).start();
+    while (attempts.next()) {
+      try {
+        return playInSession(input, history, session);
+      } catch (NoAvailableWorkerException e) {
+        error = e;
+      }
+    }
+
+    throw error;
+  }
+
+  private AldaResponse playInSession(String input, CharSequence history,
+                                     ReplSession session)
+    throws NoAvailableWorkerException, UnsuccessfulException,
+           NoResponseException {
+    if (!AldaRequestDispatcher.get()
+                              .serverSupports(host, port, REPL_SESSIONS)) {
+      return play(input, history.toString(), null, null);
+    }
+
+    boolean caughtUp = session.isCaughtUpWith(history);
+
+    AldaRequest req =
+      playRequest(input, caughtUp ? null : history.toString(), null, null);
+    req.options.session = session.getId();
+    if (caughtUp) req.workerToUse = session.getWorkerAddress();
+
+    JobHandle job = submitJob(req).onStatus(this::reportJobStatus);
+
+    try {
+      AldaResponse res = job.await();
+      session.evaluated(job.getWorkerAddress(), history, input);
+      return res;
+    } catch (SessionLostException e) {
+      session.reset();
+      // A request with the history starts a new session, so it shouldn't be
+      // lost; if it is, don't keep trying.
+      if (!caughtUp) throw new UnsuccessfulException(e.getMessage());
+      // Start a new session, sending the whole score.
+      return playInSession(input, history, session);
+    } catch (NoAvailableWorkerException e) {
+      // Rather than wait for the session's worker to be free, start a new
+      // session on whichever worker is free next.
+      if (caughtUp) session.reset();
+      throw e;
+    } catch (UnsuccessfulException | NoResponseException e) {
+      // The worker leaves the session as it was before a failed request.
+      throw e;
+    } catch (AldaException e) {
+      throw new UnsuccessfulException(e.getMessage());
+    }
+  }
+
+
+  private AldaRequest jobStatusRequest(byte[] workerAddress, String jobId) {
+    return JobTracker.jobStatusRequest(host, port, workerAddress, jobId);
+  }
 
   public AldaResponse jobStatus(byte[] workerAddress, String jobId)
     throws NoResponseException {
-    AldaRequest req = new AldaRequest(host, port);
-    req.command = "job-status";
-    req.workerToUse = workerAddress;
-    req.options = new AldaRequestOptions();
-    req.options.jobId = jobId;
-    return req.send();
+    return jobStatusRequest(workerAddress, jobId).send();
+  }
+
+  /**
+   * Like `jobStatus`, but doesn't block the calling thread.
+   *
+   * @return A future that completes with the job status response, or
+   * exceptionally with a NoResponseException.
+   */
+  public CompletableFuture<AldaResponse> jobStatusAsync(byte[] workerAddress,
+                                                        String jobId) {
+    return jobStatusRequest(workerAddress, jobId).sendAsync();
+  }
+
+  /**
+   * Asks the worker to push each change in a job's status as it happens,
+   * rather than waiting to be polled. Only for servers with the
+   * "job-status-push" capability.
+   *
+   * `onUpdate` is called with each update while the job is pending, on the
+   * client's I/O thread, so it must return quickly.
+   *
+   * @return A future that completes with the final job status, or
+   * exceptionally with a NoResponseException if the updates stop coming.
+   */
+  public CompletableFuture<AldaResponse> subscribeToJobStatus(
+    byte[] workerAddress, String jobId, Consumer<AldaResponse> onUpdate
+  ) {
+    AldaRequest req = jobStatusRequest(workerAddress, jobId);
+    req.options.subscribe = true;
+    return req.subscribe(RetryPolicies.get(req.command), onUpdate);
   }
 
   public void stop() throws UnsuccessfulException {
@@ -484,84 +1112,183 @@ public class AldaServer extends AldaProcess {
   public AldaResponse export(String code, String outputFormat, String filename)
     throws NoAvailableWorkerException, UnsuccessfulException,
            NoResponseException {
+    return awaitAsyncResponse(exportRequest(code, outputFormat, filename));
+  }
 
+  private AldaRequest exportRequest(String code, String outputFormat,
+                                    String filename) {
     AldaRequest req = new AldaRequest(host, port);
     req.command = "export";
     req.body = code;
     req.options = new AldaRequestOptions();
     req.options.filename = filename;
+    return req;
+  }
 
-    return awaitAsyncResponse(req);
+  /**
+   * Like `export`, but returns as soon as the job has been submitted. The
+   * caller can follow the job's progress and wait for it to finish through
+   * the returned handle.
+   */
+  public JobHandle exportAsync(String code, String outputFormat,
+                               String filename) {
+    return submitJob(exportRequest(code, outputFormat, filename));
   }
 
-  // Makes an initial request, then makes job status requests until the request
-  // is done and returns the final status response.
+  // Makes an initial request and then waits for the job to finish, telling
+  // the user about each change in its status. Returns the final status
+  // response.
   private AldaResponse awaitAsyncResponse(AldaRequest req)
     throws NoAvailableWorkerException, UnsuccessfulException,
            NoResponseException {
+    JobHandle job = submitJob(req).onStatus(this::reportJobStatus);
+
+    try {
+      return job.await();
+    } catch (NoAvailableWorkerException | UnsuccessfulException |
+             NoResponseException e) {
+      throw e;
+    } catch (AldaException e) {
+      throw new UnsuccessfulException(e.getMessage());
+    }
+  }
+
+  // Makes the initial request for a job, and then follows its status until
+  // it's done, without blocking.
+  private JobHandle submitJob(AldaRequest req) {
+    // The jobId doubles as an idempotency key: it's the same for every attempt
+    // at this request.
     String jobId = UUID.randomUUID().toString();
     req.options.jobId = jobId;
 
-    // The original request can have side effects (e.g. playing a score), so it
+    // The original request can have side effects (e.g. playing a score), so
+    // unless the server can tell that a retry is for a job it already has, it
     // needs to be sent exactly once and not retried, otherwise the side effects
-    // could happen multiple times.
-    //
+    // could happen multiple times. (The retry policies for "play" and "export"
+    // never retry; see RetryPolicies.)
+    RetryPolicy policy = RetryPolicies.get(req.command);
+    if (AldaRequestDispatcher.get()
+                             .serverSupports(host, port, IDEMPOTENT_JOBS)) {
+      policy = RetryPolicies.get(RetryPolicies.IDEMPOTENT_JOB);
+    }
+
+    JobHandle job = new JobHandle(this, jobId);
+
     // play requests are asynchronous; the response from the worker should be
-    // immediate, and then in the code below, we repeatedly ask the worker for
-    // status and send updates to the user until the status is "playing."
-    AldaResponse res = req.send(3000, 0);
+    // immediate, and then we follow the job's status until it's done.
+    req.sendAsync(policy).thenCompose(res -> {
+      // The server already has this job, i.e. an earlier attempt got through
+      // but its reply was lost. That's as good as a successful reply.
+      boolean duplicate = DUPLICATE_JOB_SIGNAL.equals(res.signal) &&
+                          jobId.equals(res.jobId);
+
+      if (UNKNOWN_SESSION_SIGNAL.equals(res.signal)) {
+        throw new CompletionException(new SessionLostException(res.body));
+      }
 
-    if (!res.success) {
-      String noWorkersYetMsg = "No worker processes are ready yet";
-      String workersBusyMsg = "All worker processes are currently busy";
+      if (!res.success && !duplicate) {
+        String noWorkersYetMsg = "No worker processes are ready yet";
+        String workersBusyMsg = "All worker processes are currently busy";
+
+        if (res.body.contains(noWorkersYetMsg) ||
+            res.body.contains(workersBusyMsg)) {
+          throw new CompletionException(
+            new NoAvailableWorkerException(res.body)
+          );
+        } else {
+          throw new CompletionException(new UnsuccessfulException(res.body));
+        }
+      }
 
-      if (res.body.contains(noWorkersYetMsg) ||
-          res.body.contains(workersBusyMsg)) {
-        throw new NoAvailableWorkerException(res.body);
-      } else {
-        throw new UnsuccessfulException(res.body);
+      if (res.workerAddress == null) {
+        throw new CompletionException(new UnsuccessfulException(
+          "No worker address included in response; unable to check for status."
+        ));
       }
-    }
 
-    if (res.workerAddress == null) {
-      throw new UnsuccessfulException(
-        "No worker address included in response; unable to check for status."
-      );
+      if (!job.started(res.workerAddress)) return job.getResult();
+
+      return followJob(job, res.workerAddress);
+    }).whenComplete(job::complete);
+
+    return job;
+  }
+
+  // True if the server can push replies for this capability. A subscription
+  // stays in flight until it's done, so the server also has to echo request
+  // IDs; otherwise, it would hold up every other request to the server.
+  private boolean canSubscribe(String capability) {
+    AldaRequestDispatcher dispatcher = AldaRequestDispatcher.get();
+    return dispatcher.serverSupports(host, port, capability) &&
+           dispatcher.serverPipelines(host, port);
+  }
+
+  // Follows a job's status until it's done: pushed by the worker if the server
+  // supports that, otherwise polled along with any other jobs on this server.
+  private CompletableFuture<AldaResponse> followJob(JobHandle job,
+                                                    byte[] workerAddress) {
+    if (!canSubscribe(JOB_STATUS_PUSH)) {
+      return pollJob(job, workerAddress);
     }
 
-    String status = "requested";
+    CompletableFuture<AldaResponse> pushed =
+      subscribeToJobStatus(workerAddress, job.getJobId(), job::update);
+    job.following(pushed);
 
-    while (true) {
-      AldaResponse update = jobStatus(res.workerAddress, jobId);
+    return pushed.handle((res, error) -> {
+      if (error == null) return CompletableFuture.completedFuture(res);
+      if (job.isDone()) return job.getResult();
+      // The subscription lapsed; carry on by polling.
+      return pollJob(job, workerAddress);
+    }).thenCompose(f -> f);
+  }
 
-      // Ensures that any update we process is for this score, and not a
-      // previous one.
-      if (!update.jobId.equals(jobId)) continue;
+  private CompletableFuture<AldaResponse> pollJob(JobHandle job,
+                                                  byte[] workerAddress) {
+    CompletableFuture<AldaResponse> polled =
+      JobTracker.get(host, port).track(workerAddress, job.getJobId(),
+                                       jobStatusPoller, job::update);
+    job.following(polled);
+    return polled;
+  }
 
-      // Bail out if there was some problem server-side.
-      if (!update.success) throw new UnsuccessfulException(update.body);
+  // Asks the worker to stop a job, if the server supports that. Doesn't wait
+  // for a reply.
+  void cancelJob(byte[] workerAddress, String jobId) {
+    if (!AldaRequestDispatcher.get().serverSupports(host, port, CANCEL_JOB)) {
+      return;
+    }
 
-      // Update the job status if it's different.
-      if (!update.body.equals(status)) {
-        status = update.body;
-        switch (status) {
-          case "parsing": msg("Parsing/evaluating..."); break;
-          case "playing": msg("Playing..."); break;
-          case "exporting": msg("Exporting..."); break;
-          // In rare cases (i.e. when the score is really short), the worker can
-          // be done already.
-          case "success": msg("Done."); break;
-          default: msg(status);
-        }
-      }
+    AldaRequest req = new AldaRequest(host, port);
+    req.command = "cancel-job";
+    req.workerToUse = workerAddress;
+    req.options = new AldaRequestOptions();
+    req.options.jobId = jobId;
+    req.sendAsync();
+  }
 
-      // If the job is still pending, pause and then keep looping.
-      if (update.pending) {
-        Util.sleep(JOB_STATUS_INTERVAL);
-      } else {
-        // We succeeded!
-        return update;
-      }
+  /**
+   * Sets the strategy that decides how often to poll for the status of play
+   * and export jobs, when the server can't push status updates.
+   */
+  public void setJobStatusPoller(JobStatusPoller poller) {
+    jobStatusPoller = poller;
+  }
+
+  public JobStatusPoller getJobStatusPoller() {
+    return jobStatusPoller;
+  }
+
+  // Tells the user about a change in a job's status.
+  private void reportJobStatus(AldaResponse update) {
+    switch (update.body) {
+      case "parsing": msg("Parsing/evaluating..."); break;
+      case "playing": msg("Playing..."); break;
+      case "exporting": msg("Exporting..."); break;
+      // In rare cases (i.e. when the score is really short), the worker can
+      // be done already.
+      case "success": msg("Done."); break;
+      default: msg(update.body);
     }
   }
 }
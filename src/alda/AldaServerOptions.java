@@ -7,4 +7,7 @@ public class AldaServerOptions {
   public boolean verbose = false;
   public boolean quiet   = false;
   public boolean noColor = false;
+  // JVM options for the server (and its workers) when it's started in the
+  // background.
+  public JvmProfile jvmProfile = JvmProfile.NONE;
 }
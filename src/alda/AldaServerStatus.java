@@ -0,0 +1,62 @@
+package alda;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a server reports about itself in response to a "status" request.
+ *
+ * Servers with the "structured-status" capability include this in the
+ * `serverStatus` field of the response. For older servers, it's parsed from
+ * the human-readable body (e.g. "Server up (2/2 workers available, backend
+ * port: 61004)"), which doesn't include the fields that are null below.
+ */
+public class AldaServerStatus {
+  private static final Pattern WORKERS =
+    Pattern.compile("(\\d+)/(\\d+) workers available");
+  private static final Pattern BACKEND_PORT =
+    Pattern.compile("backend port: (\\d+)");
+
+  public boolean up;
+  public int workersTotal;
+  public int workersAvailable;
+  public Integer workersBusy;
+  // The number of requests waiting for a worker.
+  public Integer queueDepth;
+  public Long uptime; // ms
+  public Integer backendPort;
+
+  /**
+   * The status of the server that sent `res`, or null if it isn't a
+   * response to a "status" request.
+   */
+  public static AldaServerStatus fromResponse(AldaResponse res) {
+    if (res.serverStatus != null) return res.serverStatus;
+    if (res.body == null) return null;
+    return fromBody(res.body);
+  }
+
+  static AldaServerStatus fromBody(String body) {
+    Matcher workers = WORKERS.matcher(body);
+    if (!workers.find()) return null;
+
+    AldaServerStatus status = new AldaServerStatus();
+    status.up = body.contains("Server up");
+    status.workersAvailable = Integer.parseInt(workers.group(1));
+    status.workersTotal = Integer.parseInt(workers.group(2));
+
+    Matcher backendPort = BACKEND_PORT.matcher(body);
+    if (backendPort.find()) {
+      status.backendPort = Integer.parseInt(backendPort.group(1));
+    }
+
+    return status;
+  }
+
+  /**
+   * True if the server is up and has a worker ready to take a request.
+   */
+  public boolean isReady() {
+    return up && workersAvailable > 0;
+  }
+}
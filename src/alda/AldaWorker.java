@@ -1,6 +1,7 @@
 package alda;
 
 import alda.error.InvalidOptionsException;
+import alda.error.SystemException;
 
 public class AldaWorker extends AldaProcess {
   public AldaWorker(int port, boolean verbose) {
@@ -11,6 +12,12 @@ public class AldaWorker extends AldaProcess {
   public void upFg() throws InvalidOptionsException {
     Object[] args = {this.port, this.verbose};
 
+    try {
+      RunRegistry.registerSelf("worker", port, RunRegistry.UP);
+    } catch (SystemException e) {
+      System.out.println("WARNING: " + e.getMessage());
+    }
+
     Util.callClojureFn("alda.worker/start-worker!", args);
   }
 }
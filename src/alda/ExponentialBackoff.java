@@ -0,0 +1,143 @@
+package alda;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The standard RetryPolicy: a fixed timeout per attempt, and a delay between
+ * attempts that starts at `initialBackoff` and is multiplied by `multiplier`
+ * after each attempt, up to `maxBackoff`.
+ *
+ * Each delay is randomly shortened by up to `jitter` (a fraction between 0 and
+ * 1) of its length, so that many clients retrying against the same server
+ * don't all do so in lockstep.
+ *
+ * Instances are immutable; the `with*` methods return modified copies.
+ */
+public final class ExponentialBackoff implements RetryPolicy {
+  public final int timeout;         // ms
+  public final int maxRetries;
+  public final long deadline;       // ms
+  public final long initialBackoff; // ms
+  public final long maxBackoff;     // ms
+  public final double multiplier;
+  public final double jitter;
+
+  public ExponentialBackoff(int timeout, int maxRetries, long deadline,
+                            long initialBackoff, long maxBackoff,
+                            double multiplier, double jitter) {
+    if (timeout < 0 || maxRetries < 0 || deadline < 0 || initialBackoff < 0 ||
+        maxBackoff < 0 || multiplier < 1 || jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException("Invalid retry policy: " +
+                                         describe(timeout, maxRetries,
+                                                  deadline, initialBackoff,
+                                                  maxBackoff, multiplier,
+                                                  jitter));
+    }
+
+    this.timeout = timeout;
+    this.maxRetries = maxRetries;
+    this.deadline = deadline;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.multiplier = multiplier;
+    this.jitter = jitter;
+  }
+
+  /**
+   * `retries` retries of `timeout` ms each, with no delay in between. This is
+   * how requests were always retried before retry policies existed.
+   */
+  public static ExponentialBackoff fixed(int timeout, int retries) {
+    return new ExponentialBackoff(timeout, retries,
+                                  (long) timeout * (retries + 1),
+                                  0, 0, 1, 0);
+  }
+
+  public ExponentialBackoff withTimeout(int timeout) {
+    return new ExponentialBackoff(timeout, maxRetries, deadline,
+                                  initialBackoff, maxBackoff, multiplier,
+                                  jitter);
+  }
+
+  public ExponentialBackoff withMaxRetries(int maxRetries) {
+    return new ExponentialBackoff(timeout, maxRetries, deadline,
+                                  initialBackoff, maxBackoff, multiplier,
+                                  jitter);
+  }
+
+  public ExponentialBackoff withDeadline(long deadline) {
+    return new ExponentialBackoff(timeout, maxRetries, deadline,
+                                  initialBackoff, maxBackoff, multiplier,
+                                  jitter);
+  }
+
+  public ExponentialBackoff withBackoff(long initialBackoff, long maxBackoff) {
+    return new ExponentialBackoff(timeout, maxRetries, deadline,
+                                  initialBackoff,
+                                  Math.max(initialBackoff, maxBackoff),
+                                  multiplier, jitter);
+  }
+
+  public ExponentialBackoff withJitter(double jitter) {
+    return new ExponentialBackoff(timeout, maxRetries, deadline,
+                                  initialBackoff, maxBackoff, multiplier,
+                                  jitter);
+  }
+
+  /**
+   * How long every attempt and the delays between them can take, at most:
+   * the shortest deadline that doesn't cut any of them short.
+   */
+  public long fullDuration() {
+    long total = (long) timeout * (maxRetries + 1L);
+    for (int attempt = 0; attempt < maxRetries; attempt++) {
+      total += (long) Math.min(initialBackoff * Math.pow(multiplier, attempt),
+                               maxBackoff);
+    }
+    return total;
+  }
+
+  @Override
+  public int maxRetries() {
+    return maxRetries;
+  }
+
+  @Override
+  public long deadline() {
+    return deadline;
+  }
+
+  @Override
+  public int attemptTimeout(int attempt) {
+    return timeout;
+  }
+
+  @Override
+  public long backoff(int attempt) {
+    double delay = initialBackoff * Math.pow(multiplier, attempt);
+    delay = Math.min(delay, maxBackoff);
+
+    if (jitter > 0) {
+      delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+    }
+
+    return (long) delay;
+  }
+
+  private static String describe(int timeout, int maxRetries, long deadline,
+                                 long initialBackoff, long maxBackoff,
+                                 double multiplier, double jitter) {
+    return String.format(
+      "timeout=%dms, retries=%d, deadline=%dms, backoff=%d-%dms (x%s), " +
+      "jitter=%s",
+      timeout, maxRetries, deadline, initialBackoff, maxBackoff, multiplier,
+      jitter
+    );
+  }
+
+  @Override
+  public String toString() {
+    return describe(timeout, maxRetries, deadline, initialBackoff, maxBackoff,
+                    multiplier, jitter);
+  }
+}
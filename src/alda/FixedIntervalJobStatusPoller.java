@@ -0,0 +1,17 @@
+package alda;
+
+/**
+ * Polls at a constant interval, regardless of the job's status.
+ */
+public class FixedIntervalJobStatusPoller implements JobStatusPoller {
+  private final long interval;
+
+  public FixedIntervalJobStatusPoller(long interval) {
+    this.interval = interval;
+  }
+
+  @Override
+  public long nextDelay(String status, long elapsed, int polls) {
+    return interval;
+  }
+}
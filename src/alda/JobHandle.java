@@ -0,0 +1,212 @@
+package alda;
+
+import alda.error.AldaException;
+import alda.error.NoResponseException;
+import alda.error.UnsuccessfulException;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * A play or export job that has been submitted to a server (see
+ * AldaServer.playAsync and AldaServer.exportAsync).
+ *
+ * Nothing blocks while the job runs: its status is followed in the background
+ * (pushed by the worker, or polled by the server's JobTracker), so any number
+ * of jobs can be in progress at once without a thread for each one.
+ */
+public class JobHandle {
+  private final AldaServer server;
+  private final String jobId;
+  private final CompletableFuture<AldaResponse> result =
+    new CompletableFuture<AldaResponse>();
+  private final List<Consumer<AldaResponse>> listeners =
+    new CopyOnWriteArrayList<Consumer<AldaResponse>>();
+
+  // Guarded by `this`.
+  private AldaResponse lastUpdate;
+
+  private volatile byte[] workerAddress;
+  // How we're currently following the job's status, so that it can be
+  // stopped if the job is cancelled.
+  private volatile CompletableFuture<AldaResponse> following;
+
+  JobHandle(AldaServer server, String jobId) {
+    this.server = server;
+    this.jobId = jobId;
+
+    AldaClientMetrics.recordJobStarted();
+    result.whenComplete((res, error) -> AldaClientMetrics.recordJobFinished());
+  }
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  /**
+   * The job's latest known status, e.g. "parsing" or "playing", or
+   * "requested" if the worker hasn't reported one yet.
+   */
+  public synchronized String getStatus() {
+    return lastUpdate == null ? "requested" : lastUpdate.body;
+  }
+
+  /**
+   * Calls `listener` each time the job's status changes, starting with its
+   * current status, if known.
+   *
+   * Listeners are called from the client's own threads, so they must return
+   * quickly.
+   */
+  public synchronized JobHandle onStatus(Consumer<AldaResponse> listener) {
+    listeners.add(listener);
+    if (lastUpdate != null) listener.accept(lastUpdate);
+    return this;
+  }
+
+  /**
+   * A future that completes with the final status of the job. It completes
+   * exceptionally with a NoAvailableWorkerException, UnsuccessfulException or
+   * NoResponseException if the job can't be started, fails, or the server
+   * stops responding, or with a CancellationException if the job is
+   * cancelled.
+   */
+  public CompletableFuture<AldaResponse> getResult() {
+    return result;
+  }
+
+  /**
+   * The final status of the job, or null if it isn't done yet.
+   */
+  public AldaResponse getResponse() {
+    return result.isDone() && !result.isCompletedExceptionally()
+             ? result.join()
+             : null;
+  }
+
+  public boolean isDone() {
+    return result.isDone();
+  }
+
+  /**
+   * Waits until the job is done and returns its final status.
+   */
+  public AldaResponse await() throws AldaException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException("Interrupted while waiting for job.");
+    } catch (ExecutionException | CancellationException e) {
+      throw failure(e);
+    }
+  }
+
+  /**
+   * Waits up to `timeout` ms for the job to be done and returns its final
+   * status.
+   *
+   * @throws TimeoutException if the job isn't done in time. It carries on
+   * regardless.
+   */
+  public AldaResponse await(long timeout)
+    throws AldaException, TimeoutException {
+    try {
+      return result.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException("Interrupted while waiting for job.");
+    } catch (ExecutionException | CancellationException e) {
+      throw failure(e);
+    }
+  }
+
+  /**
+   * Stops following the job and completes it with a CancellationException.
+   * If the server has the "cancel-job" capability, the worker is also asked
+   * to stop the job; otherwise, it runs to completion on the server.
+   *
+   * @return false if the job was already done.
+   */
+  public boolean cancel() {
+    if (!result.completeExceptionally(new CancellationException())) {
+      return false;
+    }
+
+    CompletableFuture<AldaResponse> following = this.following;
+    if (following != null) following.cancel(false);
+
+    byte[] workerAddress = this.workerAddress;
+    if (workerAddress != null) server.cancelJob(workerAddress, jobId);
+
+    return true;
+  }
+
+  private AldaException failure(Exception e) {
+    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+    if (cause instanceof AldaException) return (AldaException) cause;
+    if (cause instanceof CancellationException) {
+      return new UnsuccessfulException("The job was cancelled.");
+    }
+    return new NoResponseException(String.valueOf(cause.getMessage()));
+  }
+
+  // The worker doing the job, once it has accepted it.
+  byte[] getWorkerAddress() {
+    return workerAddress;
+  }
+
+  // Called once the worker has accepted the job. Returns false if the job
+  // has been cancelled in the meantime.
+  boolean started(byte[] workerAddress) {
+    this.workerAddress = workerAddress;
+    if (result.isCancelled()) {
+      server.cancelJob(workerAddress, jobId);
+      return false;
+    }
+    return true;
+  }
+
+  void following(CompletableFuture<AldaResponse> following) {
+    this.following = following;
+    if (result.isCancelled()) following.cancel(false);
+  }
+
+  // Called with each status update while the job is pending.
+  synchronized void update(AldaResponse update) {
+    if (!update.isAboutJob(jobId)) return;
+    if (!update.success || result.isDone()) return;
+
+    String previous = getStatus();
+    lastUpdate = update;
+
+    if (update.body != null && !update.body.equals(previous)) {
+      for (Consumer<AldaResponse> listener : listeners) {
+        listener.accept(update);
+      }
+    }
+  }
+
+  void complete(AldaResponse res, Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+
+    if (error != null) {
+      result.completeExceptionally(error);
+    } else if (!res.success) {
+      // Some problem server-side.
+      result.completeExceptionally(new UnsuccessfulException(res.body));
+    } else {
+      update(res);
+      result.complete(res);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package alda;
+
+/**
+ * Decides how long to wait between job status requests while waiting on a
+ * play or export job (see AldaServer.awaitAsyncResponse).
+ *
+ * Implementations may learn from the jobs they see (via `phaseCompleted`),
+ * and may be shared between jobs and threads, so they must be thread-safe.
+ */
+public interface JobStatusPoller {
+  /**
+   * How long (ms) to wait before the next job status request.
+   *
+   * @param status The job's current status, e.g. "parsing" ("requested"
+   *               before the first status request).
+   * @param elapsed How long (ms) the job has been in this status, as far as we
+   *                know.
+   * @param polls How many status requests have found the job in this status.
+   */
+  long nextDelay(String status, long elapsed, int polls);
+
+  /**
+   * Called when a job moves on from `status`, having been in it for about
+   * `duration` ms.
+   */
+  default void phaseCompleted(String status, long duration) {}
+}
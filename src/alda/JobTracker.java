@@ -0,0 +1,285 @@
+package alda;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Polls for the status of every outstanding play/export job on a server,
+ * together, in a single polling cycle, instead of each job having a polling
+ * loop of its own.
+ *
+ * Each job is due to be polled according to its own JobStatusPoller, and
+ * each cycle asks about the jobs that are due. When the server has the
+ * "job-status-batch" capability, that's a single request, however many jobs
+ * there are. Otherwise (or if the batch request fails), it's one job-status
+ * request per job, all sent at once and pipelined over the same connection.
+ *
+ * The next cycle starts when the job that needs it soonest is due, so a job
+ * that is polled often doesn't make the others be polled as often.
+ *
+ * There is one tracker per server; see `get`.
+ */
+public class JobTracker {
+  // Servers with this capability answer a "job-status-batch" request, which
+  // lists any number of jobs, each on its own worker, with the status of each
+  // one (see AldaRequestOptions.jobs and AldaResponse.jobs).
+  static final String JOB_STATUS_BATCH = "job-status-batch";
+
+  // Jobs due this soon after a cycle starts are polled in it, rather than in
+  // a cycle of their own a moment later.
+  private static final long COALESCE_WINDOW = 5; // ms
+
+  private static final Map<String, JobTracker> trackers =
+    new ConcurrentHashMap<String, JobTracker>();
+
+  // Shared by all trackers, as the replies to their polls are handled on the
+  // dispatcher's threads.
+  private static final ScheduledExecutorService scheduler =
+    Executors.newSingleThreadScheduledExecutor(
+      Util.daemonThreadFactory("alda-job-tracker")
+    );
+
+  private static class TrackedJob {
+    final byte[] workerAddress;
+    final String jobId;
+    final JobStatusPoller poller;
+    final Consumer<AldaResponse> onUpdate;
+    final CompletableFuture<AldaResponse> future =
+      new CompletableFuture<AldaResponse>();
+
+    // A job is polled at most once per cycle, and cycles don't overlap, so
+    // these are never updated concurrently.
+    volatile String status = "requested";
+    volatile long statusSince = System.currentTimeMillis();
+    volatile int polls = 0;
+    volatile long nextPollAt;
+
+    TrackedJob(byte[] workerAddress, String jobId, JobStatusPoller poller,
+               Consumer<AldaResponse> onUpdate) {
+      this.workerAddress = workerAddress;
+      this.jobId = jobId;
+      this.poller = poller;
+      this.onUpdate = onUpdate;
+    }
+
+    void scheduleNextPoll(long now) {
+      nextPollAt = now + poller.nextDelay(status, now - statusSince, polls);
+    }
+  }
+
+  private final String host;
+  private final int port;
+  private final Map<String, TrackedJob> jobs =
+    new ConcurrentHashMap<String, TrackedJob>();
+
+  // Guarded by `this`.
+  private boolean polling = false;
+  private long nextCycleAt = Long.MAX_VALUE;
+  // Incremented each time a cycle is (re)scheduled, so that a cycle that was
+  // superseded by an earlier one doesn't run as well.
+  private long generation = 0;
+
+  private JobTracker(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * The tracker for the server at `host`:`port`.
+   */
+  public static JobTracker get(String host, int port) {
+    return trackers.computeIfAbsent(host + ":" + port,
+                                    k -> new JobTracker(host, port));
+  }
+
+  /**
+   * Starts polling for the status of a job until it's done.
+   *
+   * `onUpdate` is called with each status update while the job is pending.
+   * It's called from the client's own threads, so it must return quickly.
+   *
+   * @return A future that completes with the final job status (which may be
+   * unsuccessful), or exceptionally with a NoResponseException if the server
+   * stops responding. Cancelling it stops tracking the job.
+   */
+  public CompletableFuture<AldaResponse> track(byte[] workerAddress,
+                                               String jobId,
+                                               JobStatusPoller poller,
+                                               Consumer<AldaResponse> onUpdate) {
+    TrackedJob job = new TrackedJob(workerAddress, jobId, poller, onUpdate);
+    job.future.whenComplete((res, error) -> jobs.remove(jobId, job));
+    long now = System.currentTimeMillis();
+    job.scheduleNextPoll(now);
+    jobs.put(jobId, job);
+    schedule(job.nextPollAt - now);
+    return job.future;
+  }
+
+  /**
+   * The number of jobs being tracked.
+   */
+  public int size() {
+    return jobs.size();
+  }
+
+  // Makes sure that a cycle starts within `delay` ms, unless one is already in
+  // progress, in which case it will schedule the next one when it's done.
+  private synchronized void schedule(long delay) {
+    if (polling) return;
+
+    long at = System.currentTimeMillis() + delay;
+    if (at >= nextCycleAt) return;
+
+    nextCycleAt = at;
+    long cycle = ++generation;
+    scheduler.schedule(() -> poll(cycle), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(long cycle) {
+    synchronized (this) {
+      if (polling || cycle != generation) return;
+      polling = true;
+      nextCycleAt = Long.MAX_VALUE;
+    }
+
+    long now = System.currentTimeMillis();
+    List<TrackedJob> due = new ArrayList<TrackedJob>();
+    for (TrackedJob job : jobs.values()) {
+      if (job.nextPollAt <= now + COALESCE_WINDOW) due.add(job);
+    }
+
+    CompletableFuture<Void> polled;
+    if (due.isEmpty()) {
+      polled = CompletableFuture.completedFuture(null);
+    } else if (AldaRequestDispatcher.get()
+                                    .serverSupports(host, port,
+                                                    JOB_STATUS_BATCH)) {
+      polled = pollBatch(due);
+    } else {
+      polled = pollEach(due);
+    }
+
+    polled.whenComplete((v, error) -> cycleDone(due));
+  }
+
+  private void cycleDone(List<TrackedJob> polled) {
+    long now = System.currentTimeMillis();
+    for (TrackedJob job : polled) job.scheduleNextPoll(now);
+
+    synchronized (this) {
+      polling = false;
+    }
+
+    // Any job tracked while the cycle was in progress is included here.
+    long next = Long.MAX_VALUE;
+    for (TrackedJob job : jobs.values()) {
+      next = Math.min(next, job.nextPollAt);
+    }
+
+    if (next != Long.MAX_VALUE) schedule(Math.max(0, next - now));
+  }
+
+  private CompletableFuture<Void> pollEach(List<TrackedJob> due) {
+    CompletableFuture<?>[] polls = new CompletableFuture<?>[due.size()];
+
+    for (int i = 0; i < polls.length; i++) {
+      TrackedJob job = due.get(i);
+      polls[i] = jobStatusRequest(host, port, job.workerAddress, job.jobId)
+                   .sendAsync()
+                   .handle((res, error) -> {
+                     if (error == null) {
+                       update(job, res);
+                     } else {
+                       fail(job, error);
+                     }
+                     return null;
+                   });
+    }
+
+    return CompletableFuture.allOf(polls);
+  }
+
+  private CompletableFuture<Void> pollBatch(List<TrackedJob> due) {
+    AldaRequest req = new AldaRequest(host, port);
+    req.command = "job-status-batch";
+    req.options = new AldaRequestOptions();
+    req.options.jobs = new ArrayList<AldaRequestOptions.JobRef>();
+
+    Map<String, TrackedJob> byId = new HashMap<String, TrackedJob>();
+    for (TrackedJob job : due) {
+      byId.put(job.jobId, job);
+      req.options.jobs.add(new AldaRequestOptions.JobRef(
+        Base64.getEncoder().encodeToString(job.workerAddress), job.jobId
+      ));
+    }
+
+    return req.sendAsync().handle((res, error) -> {
+      if (error != null) {
+        for (TrackedJob job : due) fail(job, error);
+      } else if (!res.success || res.jobs == null) {
+        // The server couldn't tell us about them all at once; ask about each
+        // one instead.
+        return pollEach(due);
+      } else {
+        // Any job that isn't included is asked about again next cycle.
+        for (AldaResponse update : res.jobs) {
+          TrackedJob job = update.jobId == null ? null : byId.get(update.jobId);
+          if (job != null) update(job, update);
+        }
+      }
+      return CompletableFuture.<Void>completedFuture(null);
+    }).thenCompose(polled -> polled);
+  }
+
+  private void update(TrackedJob job, AldaResponse update) {
+    if (!update.isAboutJob(job.jobId)) return;
+
+    if (!update.success) {
+      job.future.complete(update);
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if (update.body != null && !update.body.equals(job.status)) {
+      job.poller.phaseCompleted(job.status, now - job.statusSince);
+      job.status = update.body;
+      job.statusSince = now;
+      job.polls = 1;
+    } else {
+      job.polls++;
+    }
+
+    if (update.pending) {
+      job.onUpdate.accept(update);
+    } else {
+      job.future.complete(update);
+    }
+  }
+
+  private static void fail(TrackedJob job, Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    job.future.completeExceptionally(error);
+  }
+
+  static AldaRequest jobStatusRequest(String host, int port,
+                                      byte[] workerAddress, String jobId) {
+    AldaRequest req = new AldaRequest(host, port);
+    req.command = "job-status";
+    req.workerToUse = workerAddress;
+    req.options = new AldaRequestOptions();
+    req.options.jobId = jobId;
+    return req;
+  }
+}
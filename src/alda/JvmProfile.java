@@ -0,0 +1,269 @@
+package alda;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM options for the Alda processes that the client starts (see
+ * Util.forkProgram), tuned for how long the process will live.
+ *
+ *   none:         no options; the JVM's defaults
+ *   short-lived:  C1 only and the serial collector, which start up fastest,
+ *                 for clients, which exit after a single command
+ *   long-lived:   full tiered compilation and an initial heap big enough to
+ *                 avoid resizing it during startup, for servers and workers
+ *
+ * Which of these a process gets depends on its role (see forRole).
+ *
+ * Any profile can also use an Application Class-Data Sharing (AppCDS)
+ * archive, so that classes are loaded from a memory-mapped archive instead of
+ * being loaded and verified from the jar each time. The archive is specific
+ * to the program's jar, so it's kept in ~/.alda/cds under a name derived from
+ * the jar's path and modification time. If there is no archive yet, the
+ * process that Alda forks creates one when it exits (JDK 13+), for the next
+ * one to use. The processes that it starts in turn don't (see
+ * withoutArchiveCreation), and neither does any other process forked while
+ * it's running: the first one claims the archive with a lock file next to
+ * it, which holds its PID (see archiveClaimedBy).
+ *
+ * Options that the JVM doesn't recognize (e.g. AppCDS options on Java 8) are
+ * ignored.
+ *
+ * Instances are immutable; `withAppCds` returns a modified copy.
+ */
+public final class JvmProfile {
+  public static final JvmProfile NONE =
+    new JvmProfile("none", Collections.<String>emptyList(), false);
+
+  public static final JvmProfile SHORT_LIVED =
+    new JvmProfile("short-lived",
+                   Arrays.asList("-XX:TieredStopAtLevel=1",
+                                 "-XX:+UseSerialGC"),
+                   false);
+
+  public static final JvmProfile LONG_LIVED =
+    new JvmProfile("long-lived",
+                   Arrays.asList("-XX:+TieredCompilation",
+                                 "-Xms256m"),
+                   false);
+
+  // How long a claim on creating the archive lasts without the PID of the
+  // process that's creating it.
+  private static final long CLAIM_TTL = 60000; // ms
+
+  public final String name;
+  public final List<String> jvmOptions;
+  public final boolean appCds;
+
+  private JvmProfile(String name, List<String> jvmOptions, boolean appCds) {
+    this.name = name;
+    this.jvmOptions = Collections.unmodifiableList(jvmOptions);
+    this.appCds = appCds;
+  }
+
+  /**
+   * The profile for a process with this role ("client", "server" or
+   * "worker"), with AppCDS enabled.
+   */
+  public static JvmProfile forRole(String role) {
+    switch (role) {
+      case "client": return SHORT_LIVED.withAppCds(true);
+      case "server":
+      case "worker": return LONG_LIVED.withAppCds(true);
+      default:
+        throw new IllegalArgumentException("Unknown process role: " + role);
+    }
+  }
+
+  /**
+   * The profile with this name for a process with this role, with AppCDS
+   * enabled unless it's "none". "auto" is the profile for the role.
+   *
+   * @throws IllegalArgumentException if there's no such profile, or it's
+   * short-lived and the process isn't a client.
+   */
+  public static JvmProfile forName(String name, String role) {
+    switch (name) {
+      case "none":       return NONE;
+      case "auto":       return forRole(role);
+      case "long-lived": return LONG_LIVED.withAppCds(true);
+      case "short-lived":
+        if (!role.equals("client")) {
+          throw new IllegalArgumentException(
+            "The short-lived JVM profile is only for clients; a " + role +
+            " lives longer (expected none, auto or long-lived)"
+          );
+        }
+        return SHORT_LIVED.withAppCds(true);
+      default:
+        throw new IllegalArgumentException(
+          "Unknown JVM profile: " + name +
+          " (expected none, auto, short-lived or long-lived)"
+        );
+    }
+  }
+
+  public JvmProfile withAppCds(boolean appCds) {
+    return new JvmProfile(name, jvmOptions, appCds);
+  }
+
+  /**
+   * Where the AppCDS archive for this program is (or will be) kept.
+   */
+  public static Path archiveFor(String programPath) {
+    File program = new File(programPath);
+    String key = program.getAbsolutePath() + ":" + program.lastModified();
+    return Util.getAldaDir().resolve("cds").resolve(
+      "alda-" + Integer.toHexString(key.hashCode()) + ".jsa"
+    );
+  }
+
+  // The lock file of the process that's creating `archive`.
+  private static Path claimFor(Path archive) {
+    return archive.resolveSibling(archive.getFileName() + ".lock");
+  }
+
+  // Claims the creation of `archive` for the process that's about to be
+  // started, unless another process has claimed it and is still running.
+  private static boolean claimArchive(Path archive) {
+    Path claim = claimFor(archive);
+
+    // A second attempt, in case the first found a stale claim.
+    for (int attempt = 0; attempt < 2; attempt++) {
+      try {
+        Files.createFile(claim);
+        return true;
+      } catch (FileAlreadyExistsException e) {
+        if (!isStale(claim)) return false;
+        try {
+          Files.deleteIfExists(claim);
+        } catch (IOException e2) {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isStale(Path claim) {
+    try {
+      String pid =
+        new String(Files.readAllBytes(claim), StandardCharsets.UTF_8).trim();
+
+      // Claimed, but the process hasn't started yet (or failed to).
+      if (pid.isEmpty()) {
+        return System.currentTimeMillis() -
+               Files.getLastModifiedTime(claim).toMillis() > CLAIM_TTL;
+      }
+
+      // If we can't tell, the process that claimed it might still be running.
+      Boolean alive = ProcessWatcher.isAlive(Integer.parseInt(pid));
+      return alive != null && !alive;
+    } catch (IOException | NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Records the PID of the process that was started with options that
+   * create the archive for `programPath`, so that the claim lasts until it
+   * exits.
+   */
+  public static void archiveClaimedBy(String programPath, int pid) {
+    // Without a PID, the claim lapses after CLAIM_TTL.
+    if (pid <= 0) return;
+
+    try {
+      Files.write(claimFor(archiveFor(programPath)),
+                  Integer.toString(pid).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      // Likewise.
+    }
+  }
+
+  /**
+   * Gives up the claim on creating the archive for `programPath`, when the
+   * process that it was claimed for couldn't be started.
+   */
+  public static void releaseArchive(String programPath) {
+    try {
+      Files.deleteIfExists(claimFor(archiveFor(programPath)));
+    } catch (IOException e) {
+      // It lapses after CLAIM_TTL.
+    }
+  }
+
+  /**
+   * Whether these options create an AppCDS archive, i.e. the process started
+   * with them has claimed it (see archiveClaimedBy).
+   */
+  public static boolean createsArchive(List<String> options) {
+    for (String option : options) {
+      if (option.startsWith("-XX:ArchiveClassesAtExit=")) return true;
+    }
+    return false;
+  }
+
+  /**
+   * The options to start `programPath` with.
+   *
+   * @param canCreateArchive Whether this process may create the AppCDS
+   * archive if there isn't one yet. Only one process writes the archive: if
+   * it can, and no other process has claimed the archive, this claims it for
+   * the process that's about to be started. This must be false when the
+   * options are inherited by other processes (e.g. via JAVA_TOOL_OPTIONS).
+   */
+  public List<String> options(String programPath, boolean canCreateArchive) {
+    List<String> options = new ArrayList<String>();
+    if (this == NONE) return options;
+
+    options.add("-XX:+IgnoreUnrecognizedVMOptions");
+    options.addAll(jvmOptions);
+
+    if (appCds) {
+      Path archive = archiveFor(programPath);
+      if (Files.exists(archive)) {
+        options.add("-Xshare:auto");
+        options.add("-XX:SharedArchiveFile=" + archive);
+      } else if (canCreateArchive) {
+        try {
+          Files.createDirectories(archive.getParent());
+          if (claimArchive(archive)) {
+            options.add("-XX:ArchiveClassesAtExit=" + archive);
+          }
+        } catch (IOException e) {
+          // Carry on without an archive.
+        }
+      }
+    }
+
+    return options;
+  }
+
+  /**
+   * JVM options (e.g. the value of JAVA_TOOL_OPTIONS) without the option to
+   * create an AppCDS archive, for the processes that a process started with
+   * them starts in turn. Only the process that was told to create the
+   * archive should write it.
+   */
+  public static String withoutArchiveCreation(String options) {
+    return options.replaceAll("\\s*-XX:ArchiveClassesAtExit=\\S*", "")
+                  .trim();
+  }
+
+  @Override
+  public String toString() {
+    return name + (appCds ? " (AppCDS)" : "") + ": " + jvmOptions;
+  }
+}
@@ -0,0 +1,399 @@
+package alda;
+
+import alda.error.SystemException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.fusesource.jansi.Ansi.*;
+
+/**
+ * `alda list --watch`: a table of the running servers and workers, with each
+ * server's status, refreshed every `interval` ms.
+ *
+ * Each refresh does as little as it can, so that it costs about the same no
+ * matter how many servers there are:
+ *
+ * - The RunRegistry is only re-read where it has changed: entries are
+ *   watched for changes (with a WatchService), and each refresh checks
+ *   whether their processes are still alive (with ProcessWatcher.isAlive,
+ *   once per entry, rather than watching each one in the background).
+ *
+ * - Servers are probed with non-blocking status requests, at most one in
+ *   flight per server. A server whose status hasn't changed since the last
+ *   probe is probed half as often (down to once every MAX_BACKOFF
+ *   intervals), and as often as possible again once it changes.
+ *
+ * With `scan`, the list of running processes is searched (see
+ * IAldaProcessReader) on each refresh instead, to find servers that aren't
+ * in the registry.
+ */
+public class ListWatcher {
+  private static final int MAX_BACKOFF = 8;
+
+  private final AldaServerOptions serverOpts;
+  private final long interval;
+  private final boolean scan;
+  private final PrintStream out;
+
+  // By key (see Row.key).
+  private final Map<String, Row> rows = new HashMap<String, Row>();
+
+  private WatchService registryWatcher;
+  private boolean reloadRegistry = true;
+
+  // What the table looked like when we last printed it.
+  private String lastTable;
+
+  private static class Probe {
+    boolean responding;
+    AldaServerStatus status;
+    Long rtt; // ms
+
+    boolean sameAs(Probe other) {
+      if (other == null || responding != other.responding) return false;
+      if (status == null || other.status == null) {
+        return status == other.status;
+      }
+      return status.workersAvailable == other.status.workersAvailable &&
+             status.workersTotal == other.status.workersTotal &&
+             Objects.equals(status.workersBusy, other.status.workersBusy) &&
+             Objects.equals(status.queueDepth, other.status.queueDepth);
+    }
+  }
+
+  private static class Row {
+    final RunRegistry.Entry entry;
+    // Only for servers that we probe.
+    AldaServer server;
+
+    Probe lastProbe;
+    CompletableFuture<Probe> probe;
+    long probeInterval;
+    long nextProbeAt;
+
+    Row(RunRegistry.Entry entry) {
+      this.entry = entry;
+    }
+
+    static String key(RunRegistry.Entry entry) {
+      return entry.role + "/" + entry.port + "/" + entry.pid;
+    }
+  }
+
+  public ListWatcher(AldaServerOptions serverOpts, long interval,
+                     boolean scan) {
+    this(serverOpts, interval, scan, System.out);
+  }
+
+  ListWatcher(AldaServerOptions serverOpts, long interval, boolean scan,
+              PrintStream out) {
+    this.serverOpts = serverOpts;
+    this.interval = interval;
+    this.scan = scan;
+    this.out = out;
+  }
+
+  /**
+   * Refreshes and prints the table every `interval` ms, until interrupted.
+   */
+  public void run() throws SystemException {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        refresh();
+        print();
+        Thread.sleep(interval);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      close();
+    }
+  }
+
+  public void close() {
+    if (registryWatcher != null) {
+      try {
+        registryWatcher.close();
+      } catch (IOException e) {
+        // We're done with it anyway.
+      }
+    }
+  }
+
+  /**
+   * Brings the rows up to date, and sends status requests to any servers that
+   * are due to be probed.
+   */
+  public void refresh() throws SystemException {
+    if (scan) {
+      sync(scannedEntries());
+    } else {
+      refreshFromRegistry();
+    }
+
+    long now = System.currentTimeMillis();
+    for (Row row : rows.values()) {
+      if (row.server != null) updateProbe(row, now);
+    }
+  }
+
+  // Makes the rows match `entries`, keeping the probe state of any that were
+  // already there.
+  private void sync(List<RunRegistry.Entry> entries) {
+    Map<String, Row> current = new HashMap<String, Row>();
+    for (RunRegistry.Entry entry : entries) {
+      String key = Row.key(entry);
+      Row row = rows.get(key);
+      if (row == null || !Objects.equals(row.entry.state, entry.state)) {
+        row = newRow(entry, row);
+      }
+      current.put(key, row);
+    }
+
+    rows.clear();
+    rows.putAll(current);
+  }
+
+  private Row newRow(RunRegistry.Entry entry, Row previous) {
+    Row row = new Row(entry);
+
+    // In scan mode, there's no state, so we probe every server.
+    boolean probe = entry.role.equals("server") && entry.port > 0 &&
+                    (entry.state == null ||
+                     entry.state.equals(RunRegistry.UP));
+
+    if (probe) {
+      if (previous != null && previous.server != null) {
+        row.server = previous.server;
+        row.lastProbe = previous.lastProbe;
+        row.probe = previous.probe;
+      } else {
+        serverOpts.host = "localhost";
+        serverOpts.port = entry.port;
+        serverOpts.quiet = true;
+        row.server = new AldaServer(serverOpts);
+      }
+      row.probeInterval = interval;
+    }
+
+    return row;
+  }
+
+  private List<RunRegistry.Entry> scannedEntries() throws SystemException {
+    List<RunRegistry.Entry> entries = new ArrayList<RunRegistry.Entry>();
+
+    for (AldaProcess process : AldaClient.getProcessReader().getProcesses()) {
+      String role = process.type == null ? "unknown" : process.type;
+      RunRegistry.Entry entry =
+        new RunRegistry.Entry(role, process.port, process.pid, null);
+      entry.startTime = 0;
+      entries.add(entry);
+    }
+
+    return entries;
+  }
+
+  private void refreshFromRegistry() throws SystemException {
+    Path runDir = RunRegistry.runDir();
+
+    if (registryWatcher == null) {
+      try {
+        Files.createDirectories(runDir);
+        registryWatcher = runDir.getFileSystem().newWatchService();
+        runDir.register(registryWatcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+      } catch (IOException e) {
+        throw new SystemException("Unable to watch " + runDir, e);
+      }
+      reloadRegistry = true;
+    }
+
+    List<Path> changed = new ArrayList<Path>();
+
+    try {
+      WatchKey key;
+      while ((key = registryWatcher.poll()) != null) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            reloadRegistry = true;
+          } else {
+            changed.add(runDir.resolve((Path) event.context()));
+          }
+        }
+        key.reset();
+      }
+    } catch (ClosedWatchServiceException e) {
+      reloadRegistry = true;
+    }
+
+    // Entries whose processes have exited without removing them.
+    for (Row row : rows.values()) {
+      if (row.entry.pid > 0 &&
+          Boolean.FALSE.equals(ProcessWatcher.isAlive(row.entry.pid))) {
+        changed.add(runDir.resolve(row.entry.fileName()));
+      }
+    }
+
+    if (reloadRegistry) {
+      sync(RunRegistry.getEntries());
+      reloadRegistry = false;
+      return;
+    }
+
+    for (Path file : changed) {
+      String name = file.getFileName().toString();
+      if (!name.endsWith(".json")) continue;
+
+      // Replace whatever was in this file before.
+      Row previous = null;
+      for (Iterator<Row> it = rows.values().iterator(); it.hasNext();) {
+        Row row = it.next();
+        if (row.entry.fileName().equals(name)) {
+          previous = row;
+          it.remove();
+        }
+      }
+
+      RunRegistry.Entry entry = RunRegistry.readLive(file);
+      if (entry != null) rows.put(Row.key(entry), newRow(entry, previous));
+    }
+  }
+
+  private void updateProbe(Row row, long now) {
+    if (row.probe != null) {
+      if (!row.probe.isDone()) return;
+
+      Probe result = row.probe.join();
+      row.probe = null;
+
+      // Back off while nothing changes.
+      row.probeInterval = result.sameAs(row.lastProbe)
+        ? Math.min(row.probeInterval * 2, interval * MAX_BACKOFF)
+        : interval;
+      row.nextProbeAt = now + row.probeInterval;
+      row.lastProbe = result;
+    }
+
+    if (now >= row.nextProbeAt) {
+      long start = System.nanoTime();
+      row.probe = row.server.statusAsync().handle((res, error) -> {
+        Probe probe = new Probe();
+        probe.responding = error == null && res.success;
+        if (probe.responding) {
+          probe.status = AldaServerStatus.fromResponse(res);
+          probe.rtt =
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        return probe;
+      });
+    }
+  }
+
+  /**
+   * The current table, one line per server or worker, ordered by port.
+   */
+  public String table() {
+    List<Row> sorted = new ArrayList<Row>(rows.values());
+    sorted.sort(Comparator.comparingInt((Row row) -> row.entry.port)
+                          .thenComparing(row -> row.entry.role)
+                          .thenComparingInt(row -> row.entry.pid));
+
+    StringBuilder table = new StringBuilder();
+    String format = "%-6s %-7s %-7s %-9s %-7s %-8s %-5s %-6s %s%n";
+    table.append(String.format(format, "PORT", "ROLE", "PID", "STATE", "RTT",
+                               "WORKERS", "BUSY", "QUEUE", "UPTIME"));
+
+    long now = System.currentTimeMillis();
+
+    for (Row row : sorted) {
+      RunRegistry.Entry entry = row.entry;
+      String state = entry.state == null ? "-" : entry.state;
+      String rtt = "-", workers = "-", busy = "-", queue = "-", uptime = "-";
+
+      if (entry.startTime > 0) uptime = duration(now - entry.startTime);
+
+      Probe probe = row.lastProbe;
+      if (row.server != null) {
+        if (probe == null) {
+          state = "probing";
+        } else if (!probe.responding) {
+          state = "down";
+        } else {
+          state = "up";
+          rtt = probe.rtt + " ms";
+          if (probe.status != null) {
+            workers = probe.status.workersAvailable + "/" +
+                      probe.status.workersTotal;
+            if (probe.status.workersBusy != null) {
+              busy = probe.status.workersBusy.toString();
+            }
+            if (probe.status.queueDepth != null) {
+              queue = probe.status.queueDepth.toString();
+            }
+            if (probe.status.uptime != null) {
+              uptime = duration(probe.status.uptime);
+            }
+          }
+        }
+      }
+
+      table.append(String.format(format,
+                                 entry.port > 0 ? entry.port : "???",
+                                 entry.role,
+                                 entry.pid > 0 ? entry.pid : "-",
+                                 state, rtt, workers, busy, queue, uptime));
+    }
+
+    return table.toString();
+  }
+
+  private static String duration(long ms) {
+    long s = ms / 1000;
+    if (s < 60) return s + "s";
+    if (s < 3600) return String.format("%dm%02ds", s / 60, s % 60);
+    return String.format("%dh%02dm", s / 3600, (s % 3600) / 60);
+  }
+
+  // With color, redraws the screen on every refresh. Without, so that the
+  // output can be logged, only prints the table when it has changed.
+  private void print() {
+    String table = table();
+
+    if (serverOpts.noColor) {
+      if (table.equals(lastTable)) return;
+      out.println(new SimpleDateFormat("HH:mm:ss").format(new Date()));
+      out.print(table);
+      out.println();
+    } else {
+      out.print(ansi().eraseScreen().cursor(1, 1));
+      out.printf("Every %.1fs: alda list (Ctrl-C to stop)  %s%n%n",
+                 interval / 1000.0,
+                 new SimpleDateFormat("HH:mm:ss").format(new Date()));
+      out.print(table);
+    }
+
+    out.flush();
+    lastTable = table;
+  }
+}
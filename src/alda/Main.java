@@ -1,6 +1,7 @@
 package alda;
 
 import java.io.File;
+import java.util.List;
 
 import com.beust.jcommander.IStringConverter;
 import com.beust.jcommander.JCommander;
@@ -65,6 +66,26 @@ public class Main {
     @Parameter(names = {"-w", "--workers"},
                description = "The number of worker processes to start")
     public int numberOfWorkers = 2;
+
+    @Parameter(names = {"--request-timeout"},
+               description = "The number of milliseconds to wait for a response to each attempt at a request (default: depends on the request)")
+    public Integer requestTimeout;
+
+    @Parameter(names = {"--request-retries"},
+               description = "The number of times to retry a request that gets no response (default: depends on the request)")
+    public Integer requestRetries;
+
+    @Parameter(names = {"--request-deadline"},
+               description = "The number of milliseconds to keep retrying a request before giving up (default: depends on the request, and is long enough for any --request-timeout, --request-retries and --retry-backoff given)")
+    public Long requestDeadline;
+
+    @Parameter(names = {"--retry-backoff"},
+               description = "The number of milliseconds to wait before the first retry of a request; this doubles with each retry. 0 means retry immediately.")
+    public Long retryBackoff;
+
+    @Parameter(names = {"--jvm-profile"},
+               description = "JVM options for a server started in the background (and its workers): none, auto (the profile for servers) or long-lived. (short-lived is only for clients.) Profiles other than none also create and reuse a class-data sharing archive in ~/.alda/cds to speed up startup.")
+    public String jvmProfile = "none";
   }
 
   private static class AldaCommand {
@@ -93,19 +114,52 @@ public class Main {
   private static class CommandUpdate extends AldaCommand {}
 
   @Parameters(commandDescription = "Start the Alda server")
-  private static class CommandStartServer extends AldaCommand {}
+  private static class CommandStartServer extends AldaCommand {
+    @Parameter(names = {"-s", "--servers"},
+               description = "Start several servers at once, e.g. " +
+                             "27713,27714:4 (PORT or PORT:WORKERS; the " +
+                             "number of workers defaults to --workers)")
+    public List<String> servers;
+  }
 
   @Parameters(commandDescription = "Stop the Alda server")
   private static class CommandStopServer extends AldaCommand {}
 
   @Parameters(commandDescription = "Restart the Alda server")
-  private static class CommandRestartServer extends AldaCommand {}
+  private static class CommandRestartServer extends AldaCommand {
+    @Parameter(names = {"--blue-green"},
+               description = "Start the new server before stopping the old " +
+                             "one, so that there is no downtime for new " +
+                             "clients (a REPL that's already running has " +
+                             "to be restarted)")
+    public boolean blueGreen = false;
+  }
 
   @Parameters(commandDescription = "List running Alda servers/workers")
-  private static class CommandList extends AldaCommand {}
+  private static class CommandList extends AldaCommand {
+    @Parameter(names = {"--scan"},
+               description = "Search the list of running processes, rather " +
+                             "than the registry in ~/.alda/run (e.g. to find " +
+                             "servers started by an older version of Alda)")
+    public boolean scan = false;
+
+    @Parameter(names = {"-w", "--watch"},
+               description = "Keep the list up to date, with each server's " +
+                             "status, until interrupted")
+    public boolean watch = false;
+
+    @Parameter(names = {"-i", "--interval"},
+               description = "With --watch, the number of seconds between " +
+                             "refreshes")
+    public double interval = 2;
+  }
 
   @Parameters(commandDescription = "Display whether the server is up")
-  private static class CommandStatus extends AldaCommand {}
+  private static class CommandStatus extends AldaCommand {
+    @Parameter(names = {"-F", "--format"},
+               description = "The output format: text, json or prometheus")
+    public String format = "text";
+  }
 
   @Parameters(commandDescription = "Display the version of the Alda client and server")
   private static class CommandVersion extends AldaCommand {
@@ -289,6 +343,21 @@ public class Main {
     // used for up and downup commands
     boolean success;
 
+    JvmProfile jvmProfile = JvmProfile.NONE;
+
+    try {
+      RetryPolicies.configure(globalOpts.requestTimeout,
+                              globalOpts.requestRetries,
+                              globalOpts.requestDeadline,
+                              globalOpts.retryBackoff);
+      jvmProfile = JvmProfile.forName(globalOpts.jvmProfile, "server");
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.out.println();
+      System.out.println("For usage instructions, see --help.");
+      ExitCode.USER_ERROR.exit();
+    }
+
     AldaServerOptions serverOpts = new AldaServerOptions();
     serverOpts.host    = globalOpts.host;
     serverOpts.port    = globalOpts.port;
@@ -296,6 +365,7 @@ public class Main {
     serverOpts.verbose = globalOpts.verbose;
     serverOpts.quiet   = globalOpts.quiet;
     serverOpts.noColor = globalOpts.noColor;
+    serverOpts.jvmProfile = jvmProfile;
 
     AldaServer server = new AldaServer(serverOpts);
 
@@ -333,7 +403,12 @@ public class Main {
         case "start-server":
         case "init":
           handleCommandSpecificHelp(jc, "up", startServer);
-          server.upBg(globalOpts.numberOfWorkers);
+          if (startServer.servers != null) {
+            upBgAll(serverOpts, startServer.servers,
+                    globalOpts.numberOfWorkers, globalOpts.verbose);
+          } else {
+            server.upBg(globalOpts.numberOfWorkers);
+          }
           break;
 
         case "down":
@@ -345,17 +420,34 @@ public class Main {
         case "downup":
         case "restart-server":
           handleCommandSpecificHelp(jc, "restart-server", restartServer);
-          server.downUp(globalOpts.numberOfWorkers);
+          if (restartServer.blueGreen) {
+            server.downUpBlueGreen(globalOpts.numberOfWorkers);
+          } else {
+            server.downUp(globalOpts.numberOfWorkers);
+          }
           break;
 
         case "list":
           handleCommandSpecificHelp(jc, "list", list);
-          AldaClient.listProcesses(serverOpts);
+          if (list.watch) {
+            new ListWatcher(serverOpts, (long) (list.interval * 1000),
+                            list.scan).run();
+          } else if (list.scan) {
+            AldaClient.scanProcesses(serverOpts);
+          } else {
+            AldaClient.listProcesses(serverOpts);
+          }
           break;
 
         case "status":
           handleCommandSpecificHelp(jc, "status", status);
-          server.status();
+
+          if (!status.format.matches("text|json|prometheus"))
+            throw new InvalidOptionsException(
+              "Invalid --format. Valid formats are: text, json, prometheus"
+            );
+
+          server.status(status.format);
           break;
 
         case "version":
@@ -448,6 +540,59 @@ public class Main {
     ExitCode.SUCCESS.exit();
   }
 
+  private static void upBgAll(AldaServerOptions serverOpts,
+                              List<String> servers,
+                              int defaultNumberOfWorkers,
+                              boolean verbose)
+    throws InvalidOptionsException {
+    ServerGroup group = new ServerGroup();
+
+    for (String server : servers) {
+      String[] portAndWorkers = server.trim().split(":");
+      int port, numberOfWorkers;
+
+      try {
+        port = Integer.parseInt(portAndWorkers[0]);
+        numberOfWorkers = portAndWorkers.length > 1
+                            ? Integer.parseInt(portAndWorkers[1])
+                            : defaultNumberOfWorkers;
+      } catch (NumberFormatException e) {
+        throw new InvalidOptionsException(
+          "Invalid server: " + server + " (expected PORT or PORT:WORKERS)"
+        );
+      }
+
+      if (portAndWorkers.length > 2 || numberOfWorkers < 1) {
+        throw new InvalidOptionsException(
+          "Invalid server: " + server + " (expected PORT or PORT:WORKERS)"
+        );
+      }
+
+      AldaServerOptions opts = new AldaServerOptions();
+      opts.host       = serverOpts.host;
+      opts.port       = port;
+      opts.timeout    = serverOpts.timeout;
+      opts.verbose    = serverOpts.verbose;
+      opts.quiet      = serverOpts.quiet;
+      opts.noColor    = serverOpts.noColor;
+      opts.jvmProfile = serverOpts.jvmProfile;
+
+      group.add(new AldaServer(opts), numberOfWorkers);
+    }
+
+    try {
+      group.upBg();
+    } catch (AldaException e) {
+      // The server that failed has already reported the error.
+      if (verbose) {
+        System.out.println();
+        e.printStackTrace();
+        System.out.println("Exit Code: "+ e.getExitCode());
+      }
+      e.getExitCode().exit();
+    }
+  }
+
   private static boolean receivingInputFromStdin() {
     return System.console() == null;
   }
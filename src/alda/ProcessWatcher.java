@@ -0,0 +1,120 @@
+package alda;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells us when a process (e.g. an Alda server that we've asked to stop)
+ * exits, given its PID.
+ *
+ * On Java 9+, this uses ProcessHandle.onExit. On Java 8, it watches for
+ * /proc/<pid> to go away, where there is a /proc. (procfs doesn't support
+ * file watches, but checking whether a directory exists is cheap enough to
+ * do every few ms.) Anywhere else, we can't tell, and `onExit` returns null.
+ */
+public final class ProcessWatcher {
+  private ProcessWatcher() {}
+
+  private static final long PROC_CHECK_INTERVAL = 10; // ms
+
+  private static final Path PROC = Paths.get("/proc");
+
+  // ProcessHandle.of and ProcessHandle.onExit, if this is Java 9+. (The
+  // client is built for Java 8, so we can't refer to them directly.)
+  private static final Method PROCESS_HANDLE_OF;
+  private static final Method ON_EXIT;
+  private static final Method IS_ALIVE;
+
+  static {
+    Method of = null;
+    Method onExit = null;
+    Method isAlive = null;
+
+    try {
+      Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+      of = processHandle.getMethod("of", long.class);
+      onExit = processHandle.getMethod("onExit");
+      isAlive = processHandle.getMethod("isAlive");
+    } catch (ReflectiveOperationException e) {
+      // Java 8
+    }
+
+    PROCESS_HANDLE_OF = of;
+    ON_EXIT = onExit;
+    IS_ALIVE = isAlive;
+  }
+
+  private static final ScheduledExecutorService scheduler =
+    Executors.newSingleThreadScheduledExecutor(
+      Util.daemonThreadFactory("alda-process-watcher")
+    );
+
+  /**
+   * A future that completes when the process with this PID exits (or right
+   * away, if there isn't one), or null if there's no way to tell on this
+   * platform.
+   */
+  public static CompletableFuture<Void> onExit(int pid) {
+    if (PROCESS_HANDLE_OF != null) {
+      try {
+        Optional<?> handle = (Optional<?>) PROCESS_HANDLE_OF.invoke(null,
+                                                                    (long) pid);
+        if (!handle.isPresent()) return CompletableFuture.completedFuture(null);
+
+        return ((CompletableFuture<?>) ON_EXIT.invoke(handle.get()))
+                 .thenApply(process -> null);
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        // Fall back to /proc, below.
+      }
+    }
+
+    if (Files.isDirectory(PROC)) return watchProc(pid);
+
+    return null;
+  }
+
+  /**
+   * Whether the process with this PID is running, or null if there's no way
+   * to tell on this platform.
+   */
+  public static Boolean isAlive(int pid) {
+    if (PROCESS_HANDLE_OF != null) {
+      try {
+        Optional<?> handle = (Optional<?>) PROCESS_HANDLE_OF.invoke(null,
+                                                                    (long) pid);
+        return handle.isPresent() && (Boolean) IS_ALIVE.invoke(handle.get());
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        // Fall back to /proc, below.
+      }
+    }
+
+    if (Files.isDirectory(PROC)) {
+      return Files.exists(PROC.resolve(Integer.toString(pid)));
+    }
+
+    return null;
+  }
+
+  private static CompletableFuture<Void> watchProc(int pid) {
+    Path dir = PROC.resolve(Integer.toString(pid));
+    CompletableFuture<Void> exited = new CompletableFuture<Void>();
+
+    ScheduledFuture<?> check = scheduler.scheduleWithFixedDelay(() -> {
+      if (!Files.exists(dir)) exited.complete(null);
+    }, 0, PROC_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+    // Stop checking once it has exited, or if the caller stops waiting.
+    exited.whenComplete((v, error) -> check.cancel(false));
+
+    return exited;
+  }
+}
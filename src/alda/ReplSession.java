@@ -0,0 +1,57 @@
+package alda;
+
+import java.util.UUID;
+
+/**
+ * A REPL's score, as evaluated so far by one of the server's workers.
+ *
+ * Without a session, each line typed at the REPL is sent along with the whole
+ * score so far (its history), which the worker evaluates from scratch every
+ * time. A server with the "repl-sessions" capability can instead have the
+ * worker keep the evaluated score for the session, so that each line only
+ * needs the new input, sent to the same worker. The history is only sent
+ * again when the worker no longer has the session (e.g. it was restarted or
+ * is busy), or when the history has been replaced (see reset).
+ *
+ * The history is expected to be the REPL's inputs so far, each followed by a
+ * newline, as it is in AldaRepl. A session is meant to be used by one REPL at
+ * a time.
+ */
+public class ReplSession {
+  private String id = UUID.randomUUID().toString();
+
+  // The worker that has the session, or null if none does yet.
+  private byte[] workerAddress;
+  // How much of the history the worker has evaluated.
+  private int evaluated;
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Starts over with a new session, e.g. because the REPL's score has been
+   * replaced. The next line will be sent with the whole history.
+   */
+  public void reset() {
+    id = UUID.randomUUID().toString();
+    workerAddress = null;
+    evaluated = 0;
+  }
+
+  // True if the session's worker has evaluated exactly `history`, so that we
+  // only need to send it the new input.
+  boolean isCaughtUpWith(CharSequence history) {
+    return workerAddress != null && evaluated == history.length();
+  }
+
+  byte[] getWorkerAddress() {
+    return workerAddress;
+  }
+
+  // Called once a worker has evaluated `input` on top of `history`.
+  void evaluated(byte[] workerAddress, CharSequence history, String input) {
+    this.workerAddress = workerAddress;
+    this.evaluated = history.length() + input.length() + 1;
+  }
+}
@@ -0,0 +1,160 @@
+package alda;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The retry policy to use for each kind of request, and for each of the loops
+ * in AldaServer that wait for something to happen.
+ *
+ * Request policies are keyed by command (e.g. "ping", "status"). Wait loops
+ * have their own names:
+ *
+ *   server-startup:  waiting for a new server to respond to pings
+ *   server-shutdown: waiting for a server to stop responding to pings
+ *   worker-startup:  waiting for a new server to have a worker available
+ *   busy-worker:     waiting for a worker to become available to play input
+ *                    from the REPL
+ *   server-drain:    waiting for a server to finish its work before stopping
+ *                    it during a blue/green restart
+ *
+ * idempotent-job is used instead of the "play" or "export" policy when the
+ * server can recognize a retried request for a job it already has.
+ *
+ * Anything not listed here uses the default policy.
+ */
+public final class RetryPolicies {
+  private RetryPolicies() {}
+
+  public static final String SERVER_STARTUP = "server-startup";
+  public static final String SERVER_SHUTDOWN = "server-shutdown";
+  public static final String WORKER_STARTUP = "worker-startup";
+  public static final String BUSY_WORKER = "busy-worker";
+  public static final String IDEMPOTENT_JOB = "idempotent-job";
+  public static final String SERVER_DRAIN = "server-drain";
+
+  private static volatile RetryPolicy defaultPolicy =
+    new ExponentialBackoff(500, 10, 6000, 25, 500, 2, 0.5);
+
+  private static final Map<String, RetryPolicy> policies =
+    new ConcurrentHashMap<String, RetryPolicy>();
+
+  static {
+    policies.put("ping", new ExponentialBackoff(100, 5, 1000, 25, 200, 2, 0.5));
+    policies.put("status",
+                 new ExponentialBackoff(200, 10, 3000, 25, 500, 2, 0.5));
+
+    // These requests have side effects (e.g. playing a score), so they must
+    // not be retried.
+    policies.put("play", ExponentialBackoff.fixed(3000, 0));
+    policies.put("export", ExponentialBackoff.fixed(3000, 0));
+
+    policies.put(IDEMPOTENT_JOB,
+                 new ExponentialBackoff(1500, 4, 10000, 100, 1000, 2, 0.5));
+
+    // The wait loops' deadlines are replaced by the server's --timeout.
+    policies.put(SERVER_STARTUP,
+                 new ExponentialBackoff(250, Integer.MAX_VALUE, 30000,
+                                        100, 1000, 1.5, 0.2));
+    policies.put(SERVER_SHUTDOWN,
+                 new ExponentialBackoff(250, Integer.MAX_VALUE, 30000,
+                                        100, 1000, 1.5, 0.2));
+    policies.put(WORKER_STARTUP,
+                 new ExponentialBackoff(500, Integer.MAX_VALUE, 30000,
+                                        100, 500, 1.5, 0.2));
+    policies.put(SERVER_DRAIN,
+                 new ExponentialBackoff(500, Integer.MAX_VALUE, 30000,
+                                        100, 1000, 1.5, 0.2));
+    policies.put(BUSY_WORKER,
+                 new ExponentialBackoff(3000, Integer.MAX_VALUE, 10000,
+                                        250, 2000, 2, 0.5));
+  }
+
+  /**
+   * The policy for a command or wait loop.
+   */
+  public static RetryPolicy get(String name) {
+    RetryPolicy policy = name == null ? null : policies.get(name);
+    return policy == null ? defaultPolicy : policy;
+  }
+
+  public static RetryPolicy getDefault() {
+    return defaultPolicy;
+  }
+
+  public static void setDefault(RetryPolicy policy) {
+    defaultPolicy = policy;
+  }
+
+  /**
+   * Replaces the policy for a command or wait loop.
+   */
+  public static void set(String name, RetryPolicy policy) {
+    policies.put(name, policy);
+  }
+
+  /**
+   * Applies settings from the command line to every policy. Any setting that
+   * is null is left as is.
+   *
+   * Commands that are never retried (see above) stay that way, regardless of
+   * `retries`.
+   *
+   * Without a `deadline`, a request policy whose timeout, retries or backoff
+   * changes gets a deadline long enough for all of its attempts, if its own
+   * is shorter; otherwise, it would cut short the retries asked for.
+   *
+   * @throws IllegalArgumentException if `deadline` is shorter than a single
+   * attempt.
+   */
+  public static void configure(Integer timeout, Integer retries,
+                               Long deadline, Long backoff) {
+    if (deadline != null && timeout != null && deadline < timeout) {
+      throw new IllegalArgumentException(String.format(
+        "The request deadline (%d ms) is shorter than a single attempt " +
+        "(%d ms).", deadline, timeout
+      ));
+    }
+
+    defaultPolicy = configure(defaultPolicy, timeout, retries, deadline,
+                              backoff);
+    for (Map.Entry<String, RetryPolicy> entry : policies.entrySet()) {
+      entry.setValue(configure(entry.getValue(), timeout, retries, deadline,
+                               backoff));
+    }
+  }
+
+  /**
+   * `policy`, with the settings from the command line applied (see above).
+   */
+  public static RetryPolicy configure(RetryPolicy policy, Integer timeout,
+                                      Integer retries, Long deadline,
+                                      Long backoff) {
+    if (!(policy instanceof ExponentialBackoff)) return policy;
+
+    ExponentialBackoff p = (ExponentialBackoff) policy;
+
+    if (timeout != null) p = p.withTimeout(timeout);
+
+    // The wait loops retry for as long as their deadline allows, and commands
+    // with side effects are never retried.
+    if (retries != null && p.maxRetries > 0 &&
+        p.maxRetries != Integer.MAX_VALUE) {
+      p = p.withMaxRetries(retries);
+    }
+
+    if (backoff != null) {
+      p = p.withBackoff(backoff, Math.max(backoff, p.maxBackoff));
+    }
+
+    if (deadline != null) {
+      p = p.withDeadline(deadline);
+    } else if (p.maxRetries != Integer.MAX_VALUE &&
+               (timeout != null || retries != null || backoff != null)) {
+      // The wait loops' deadlines come from --timeout instead.
+      p = p.withDeadline(Math.max(p.deadline, p.fullDuration()));
+    }
+
+    return p;
+  }
+}
@@ -0,0 +1,102 @@
+package alda;
+
+/**
+ * Decides how long to wait for a response, how many times to try again, and
+ * how long to wait between tries, when talking to an Alda server.
+ *
+ * Used both for individual requests (see AldaRequest.send) and for the loops
+ * in AldaServer that wait for something to happen (e.g. for a server to come
+ * up). The defaults for each command are in RetryPolicies.
+ */
+public interface RetryPolicy {
+  /**
+   * The most retries to make after the first attempt.
+   */
+  int maxRetries();
+
+  /**
+   * The overall time budget (ms) across all attempts, measured from the start
+   * of the first one. No attempt is started or waited on past this point.
+   */
+  long deadline();
+
+  /**
+   * How long (ms) to wait for a response to attempt number `attempt`
+   * (starting from 0).
+   */
+  int attemptTimeout(int attempt);
+
+  /**
+   * How long (ms) to wait after attempt number `attempt` has failed, before
+   * making the next one.
+   */
+  long backoff(int attempt);
+
+  /**
+   * Starts keeping track of attempts made under this policy.
+   */
+  default Attempts start() {
+    return new Attempts(this);
+  }
+
+  /**
+   * A single run through a retry policy, for loops of the form:
+   *
+   *   RetryPolicy.Attempts attempts = policy.start();
+   *   while (attempts.next()) {
+   *     if (tryIt(attempts.timeout())) return;
+   *   }
+   *   // give up
+   */
+  class Attempts {
+    private final RetryPolicy policy;
+    private final long giveUpAt;
+    private int attempt = -1;
+
+    Attempts(RetryPolicy policy) {
+      this.policy = policy;
+      this.giveUpAt = System.currentTimeMillis() + policy.deadline();
+    }
+
+    /**
+     * Waits out the backoff after the previous attempt, if there was one.
+     *
+     * Returns false (without waiting) if there are no more attempts to make,
+     * either because we're out of retries or because the next attempt would
+     * start after the deadline.
+     */
+    public boolean next() {
+      if (attempt < 0) {
+        attempt = 0;
+        return true;
+      }
+
+      if (attempt >= policy.maxRetries()) return false;
+
+      long delay = policy.backoff(attempt);
+      if (System.currentTimeMillis() + delay >= giveUpAt) return false;
+
+      Util.sleep((int) delay);
+      attempt++;
+      AldaClientMetrics.recordRetry();
+      return true;
+    }
+
+    /**
+     * The number of the current attempt, starting from 0.
+     */
+    public int attempt() {
+      return attempt;
+    }
+
+    /**
+     * How long (ms) to wait on the current attempt, without going past the
+     * deadline.
+     */
+    public int timeout() {
+      long remaining = giveUpAt - System.currentTimeMillis();
+      return (int) Math.max(0, Math.min(policy.attemptTimeout(attempt),
+                                        remaining));
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package alda;
+
+import alda.error.SystemException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A record of the Alda servers and workers running on this host, so that we
+ * can find them without scanning the list of running processes.
+ *
+ * Each process has an entry in ~/.alda/run: <port>.json for a server, and
+ * <port>-worker-<pid>.json for a worker. A server's entry is first written by
+ * the client that starts it (see AldaServer.upBg), then by the server process
+ * itself, which removes it when it exits.
+ *
+ * Entries are replaced atomically, so they can be read without locking.
+ * Changes are made while holding a lock on ~/.alda/run/.lock, so that e.g. an
+ * entry isn't reaped just as it's replaced. An entry whose process is no
+ * longer running (e.g. it was killed) is stale, and is removed the next time
+ * it's read.
+ */
+public final class RunRegistry {
+  private RunRegistry() {}
+
+  public static final String STARTING = "starting";
+  public static final String UP = "up";
+  public static final String STOPPING = "stopping";
+
+  // How long an entry without a PID (because we couldn't tell what it was)
+  // counts as a server that's starting.
+  private static final long STARTING_TTL = 120000; // ms
+
+  private static final Gson gson = new Gson();
+
+  // A file lock only excludes other processes, so threads in this one take
+  // turns via this monitor.
+  private static final Object lock = new Object();
+
+  public static class Entry {
+    public int pid;
+    public int port;
+    // "server" or "worker"
+    public String role;
+    public long startTime; // ms since the epoch
+    // STARTING, UP or STOPPING
+    public String state;
+
+    public Entry() {}
+
+    public Entry(String role, int port, int pid, String state) {
+      this.role = role;
+      this.port = port;
+      this.pid = pid;
+      this.state = state;
+      this.startTime = System.currentTimeMillis();
+    }
+
+    String fileName() {
+      return role.equals("worker")
+        ? String.format("%d-worker-%d.json", port, pid)
+        : String.format("%d.json", port);
+    }
+
+    boolean isStale() {
+      if (pid <= 0) {
+        return System.currentTimeMillis() - startTime > STARTING_TTL;
+      }
+
+      Boolean alive = ProcessWatcher.isAlive(pid);
+      return alive != null && !alive;
+    }
+  }
+
+  static Path runDir() {
+    return Util.getAldaDir().resolve("run");
+  }
+
+  private interface Change {
+    void apply() throws IOException;
+  }
+
+  private static void locked(Change change) throws IOException {
+    synchronized (lock) {
+      Files.createDirectories(runDir());
+      try (FileChannel channel =
+             FileChannel.open(runDir().resolve(".lock"),
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE)) {
+        // Released when the channel is closed.
+        channel.lock();
+        change.apply();
+      }
+    }
+  }
+
+  private static Entry read(Path file) {
+    try {
+      return gson.fromJson(
+        new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+        Entry.class
+      );
+    } catch (IOException | JsonParseException e) {
+      // Removed while we were reading it, or half-written by an older client.
+      return null;
+    }
+  }
+
+  private static void write(Entry entry) throws IOException {
+    Path tmp = Files.createTempFile(runDir(), entry.fileName() + "-", ".tmp");
+    Files.write(tmp, gson.toJson(entry).getBytes(StandardCharsets.UTF_8));
+    Files.move(tmp, runDir().resolve(entry.fileName()),
+               StandardCopyOption.ATOMIC_MOVE,
+               StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // The entry in `file`, or null if there isn't one or it's stale, in which
+  // case it's removed.
+  static Entry readLive(Path file) {
+    Entry entry = read(file);
+    if (entry == null || !entry.isStale()) return entry;
+
+    try {
+      locked(() -> {
+        // It might have been replaced in the meantime.
+        Entry current = read(file);
+        if (current != null && current.isStale()) Files.deleteIfExists(file);
+      });
+    } catch (IOException e) {
+      // Someone else will reap it.
+    }
+
+    return null;
+  }
+
+  /**
+   * The server registered on this port, or null if there isn't one.
+   */
+  public static Entry getServer(int port) {
+    return readLive(runDir().resolve(port + ".json"));
+  }
+
+  /**
+   * All registered servers and workers, by port.
+   */
+  public static List<Entry> getEntries() throws SystemException {
+    List<Entry> entries = new ArrayList<Entry>();
+    if (!Files.isDirectory(runDir())) return entries;
+
+    try (DirectoryStream<Path> files =
+           Files.newDirectoryStream(runDir(), "*.json")) {
+      for (Path file : files) {
+        Entry entry = readLive(file);
+        if (entry != null) entries.add(entry);
+      }
+    } catch (IOException e) {
+      throw new SystemException("Unable to read " + runDir(), e);
+    }
+
+    Collections.sort(entries, Comparator.comparingInt((Entry e) -> e.port)
+                                        .thenComparing(e -> e.role));
+    return entries;
+  }
+
+  /**
+   * Records `entry`, replacing any existing entry for the same process (or
+   * for a server, the same port).
+   *
+   * If `onlyIfAbsent`, an existing live entry is left as it is.
+   */
+  public static void register(Entry entry, boolean onlyIfAbsent)
+    throws SystemException {
+    try {
+      locked(() -> {
+        if (onlyIfAbsent) {
+          Entry current = read(runDir().resolve(entry.fileName()));
+          if (current != null && !current.isStale()) return;
+        }
+        write(entry);
+      });
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to register the %s on port %d.",
+                      entry.role, entry.port), e
+      );
+    }
+  }
+
+  /**
+   * Changes the state of the server registered on this port, if there is
+   * one.
+   */
+  public static void setServerState(int port, String state)
+    throws SystemException {
+    try {
+      locked(() -> {
+        Entry entry = read(runDir().resolve(port + ".json"));
+        if (entry == null) return;
+        entry.state = state;
+        write(entry);
+      });
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to update the server on port %d.", port), e
+      );
+    }
+  }
+
+  /**
+   * Removes `entry`, as long as it still belongs to the same process (i.e.
+   * another server hasn't registered on the port since).
+   */
+  public static void unregister(Entry entry) throws SystemException {
+    try {
+      locked(() -> {
+        Path file = runDir().resolve(entry.fileName());
+        Entry current = read(file);
+        if (current != null && current.pid == entry.pid) {
+          Files.deleteIfExists(file);
+        }
+      });
+    } catch (NoSuchFileException e) {
+      // Already gone.
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to unregister the %s on port %d.",
+                      entry.role, entry.port), e
+      );
+    }
+  }
+
+  /**
+   * Removes the server registered on this port, if there is one.
+   */
+  public static void unregisterServer(int port) throws SystemException {
+    try {
+      locked(() -> Files.deleteIfExists(runDir().resolve(port + ".json")));
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to unregister the server on port %d.", port), e
+      );
+    }
+  }
+
+  /**
+   * Registers this process as a server or worker, and arranges for the entry
+   * to be removed when it exits.
+   */
+  public static Entry registerSelf(String role, int port, String state)
+    throws SystemException {
+    Entry entry = new Entry(role, port, Util.getPid(), state);
+    register(entry, false);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        unregister(entry);
+      } catch (SystemException e) {
+        // It'll be reaped as stale.
+      }
+    }, "alda-run-registry"));
+
+    return entry;
+  }
+}
@@ -0,0 +1,145 @@
+package alda;
+
+import alda.error.AldaException;
+import alda.error.InvalidOptionsException;
+import alda.error.NoResponseException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A set of servers (e.g. on different ports of this host) to start together.
+ *
+ * `upBg` starts them all at once and waits for them to be ready in parallel,
+ * so it takes about as long as starting the slowest one, rather than all of
+ * them one after another. It gives up as soon as any of them fails to start.
+ */
+public class ServerGroup {
+  private final List<AldaServer> servers = new ArrayList<AldaServer>();
+  private final List<Integer> workers = new ArrayList<Integer>();
+
+  /**
+   * Adds a server to the group.
+   *
+   * @throws InvalidOptionsException if the group already has a server on the
+   * same port.
+   */
+  public ServerGroup add(AldaServer server, int numberOfWorkers)
+    throws InvalidOptionsException {
+    for (AldaServer other : servers) {
+      if (other.getPublicPort() == server.getPublicPort()) {
+        throw new InvalidOptionsException(
+          "Port " + server.getPublicPort() + " is given more than once."
+        );
+      }
+    }
+
+    servers.add(server);
+    workers.add(numberOfWorkers);
+    return this;
+  }
+
+  public List<AldaServer> getServers() {
+    return servers;
+  }
+
+  // One step of starting a server.
+  private interface Step {
+    void run(AldaServer server, int numberOfWorkers) throws AldaException;
+  }
+
+  /**
+   * Starts the servers in the background and waits until each of them is up,
+   * with a worker ready.
+   *
+   * If any server can't be started (e.g. it's already up), none of them are.
+   * If any server fails to start in time, this stops waiting for the others
+   * (which carry on starting) and throws its exception, after reporting it
+   * via that server's `error`.
+   */
+  public void upBg() throws AldaException {
+    ExecutorService executor =
+      Executors.newFixedThreadPool(
+        Math.max(1, servers.size()),
+        Util.daemonThreadFactory("alda-server-startup")
+      );
+
+    try {
+      // Check them all before starting any of them.
+      runAll(executor, (server, workers) -> server.checkCanStart(), false);
+      runAll(executor, (server, workers) -> {
+        server.fork(workers);
+        server.awaitReady();
+      }, true);
+    } finally {
+      // Stops waiting for any servers that are still starting.
+      executor.shutdownNow();
+    }
+  }
+
+  // Runs `step` for each server in parallel, and waits for all of them to
+  // finish, or for the first one to fail.
+  private void runAll(ExecutorService executor, Step step,
+                      boolean reportProgress) throws AldaException {
+    CompletionService<AldaServer> completion =
+      new ExecutorCompletionService<AldaServer>(executor);
+    Map<Future<AldaServer>, AldaServer> futureServers =
+      new HashMap<Future<AldaServer>, AldaServer>();
+
+    for (int i = 0; i < servers.size(); i++) {
+      AldaServer server = servers.get(i);
+      int numberOfWorkers = workers.get(i);
+
+      futureServers.put(completion.submit(() -> {
+        step.run(server, numberOfWorkers);
+        return server;
+      }), server);
+    }
+
+    try {
+      for (int done = 1; done <= servers.size(); done++) {
+        Future<AldaServer> future = completion.take();
+        AldaServer server = futureServers.get(future);
+
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          for (Future<AldaServer> other : futureServers.keySet()) {
+            other.cancel(true);
+          }
+
+          Throwable cause = e.getCause();
+          throw failed(server, cause instanceof AldaException
+                                 ? (AldaException) cause
+                                 : new NoResponseException(
+                                     String.valueOf(cause)));
+        }
+
+        if (reportProgress) {
+          server.msg(String.format("%d/%d servers ready", done,
+                                   servers.size()));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NoResponseException(
+        "Interrupted while waiting for servers to start."
+      );
+    }
+  }
+
+  // Reports why `server` failed to start, so that it's clear which one it
+  // was.
+  private AldaException failed(AldaServer server, AldaException e) {
+    server.error(e.getMessage());
+    return e;
+  }
+}
@@ -0,0 +1,94 @@
+package alda;
+
+import alda.error.SystemException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Where clients should actually connect to reach the server for a given port.
+ *
+ * Normally, a server listens on the port that clients are given (e.g. with
+ * --port). After a blue/green restart (see AldaServer.downUpBlueGreen), the
+ * replacement server may be listening on another port. A route file at
+ * ~/.alda/routes/<port>, containing the other port, tells clients to connect
+ * there instead. The next blue/green restart moves the server back to the
+ * original port and removes the route.
+ *
+ * Routes are replaced atomically, so a client always sees either the old port
+ * or the new one. They're only for servers on this host, and only for
+ * clients: a server listens on the port it's given, even if that port's
+ * clients are routed elsewhere (e.g. while it's starting up as a
+ * replacement).
+ *
+ * A client follows the route when it's created (see AldaServer), and keeps
+ * that port for as long as it lives. A long-lived client (e.g. the REPL) that
+ * was created before a blue/green restart keeps talking to the old server,
+ * and has to be restarted once that server has stopped.
+ */
+public final class ServerRoutes {
+  private ServerRoutes() {}
+
+  private static Path routesDir() {
+    return Util.getAldaDir().resolve("routes");
+  }
+
+  private static Path routeFile(int port) {
+    return routesDir().resolve(Integer.toString(port));
+  }
+
+  /**
+   * The port to connect to, to reach the server for `port`.
+   */
+  public static int resolve(int port) {
+    Path file = routeFile(port);
+    if (!Files.exists(file)) return port;
+
+    try {
+      String target =
+        new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+      return Integer.parseInt(target);
+    } catch (IOException | NumberFormatException e) {
+      // An unreadable route is as good as none.
+      return port;
+    }
+  }
+
+  /**
+   * Sends clients of the server for `port` to `target` instead.
+   */
+  public static void route(int port, int target) throws SystemException {
+    if (port == target) {
+      clear(port);
+      return;
+    }
+
+    try {
+      Files.createDirectories(routesDir());
+      Path tmp = Files.createTempFile(routesDir(), port + "-", ".tmp");
+      Files.write(tmp, Integer.toString(target).getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, routeFile(port), StandardCopyOption.ATOMIC_MOVE,
+                 StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to route port %d to %d.", port, target), e
+      );
+    }
+  }
+
+  /**
+   * Sends clients of the server for `port` to `port` itself.
+   */
+  public static void clear(int port) throws SystemException {
+    try {
+      Files.deleteIfExists(routeFile(port));
+    } catch (IOException e) {
+      throw new SystemException(
+        String.format("Unable to remove the route for port %d.", port), e
+      );
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package alda;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/**
+ * A machine-readable snapshot of a server's status (see AldaServer.status),
+ * optionally along with the client's own counters (see AldaClientMetrics),
+ * for monitoring.
+ *
+ * The client counters are per-process: they only cover the requests made by
+ * the process that writes the report. They're worth reporting from a
+ * long-running process that embeds the client (see
+ * AldaServer.getStatusReport), but not from a one-off `alda status`, which
+ * would only count its own status request, so the CLI leaves them out.
+ *
+ * It can be written as JSON, or in the Prometheus text exposition format.
+ */
+public class StatusReport {
+  public String host;
+  public int port;
+  // Whether the server answered the status request.
+  public boolean up;
+  // How long the status request took to be answered, in ms, if it was.
+  public Long rtt;
+  // What the server reported, if it's up.
+  public AldaServerStatus server;
+
+  // Whether the report includes the client counters below.
+  public boolean clientMetrics;
+  public long jobsInFlight;
+  public long roundTrips;
+  public long roundTripTime; // ms
+  public long retries;
+  public long timeouts;
+  public long connectionsOpened;
+  public long socketRebuilds;
+
+  /**
+   * A report for the server on this host and port, without client counters.
+   */
+  public static StatusReport forServer(String host, int port) {
+    StatusReport report = new StatusReport();
+    report.host = host.replaceAll("tcp://", "");
+    report.port = port;
+    return report;
+  }
+
+  /**
+   * A report with this process's client counters as they are now.
+   */
+  public static StatusReport withClientMetrics(String host, int port) {
+    StatusReport report = forServer(host, port);
+    report.clientMetrics = true;
+    report.jobsInFlight = AldaClientMetrics.jobsInFlight();
+    report.roundTrips = AldaClientMetrics.roundTrips();
+    report.roundTripTime = AldaClientMetrics.roundTripTime();
+    report.retries = AldaClientMetrics.retries();
+    report.timeouts = AldaClientMetrics.timeouts();
+    report.connectionsOpened = AldaClientMetrics.connectionsOpened();
+    report.socketRebuilds = AldaClientMetrics.socketRebuilds();
+    return report;
+  }
+
+  public String toJson() {
+    StringWriter json = new StringWriter();
+
+    try (JsonWriter out = new JsonWriter(json)) {
+      out.beginObject();
+      out.name("host").value(host);
+      out.name("port").value(port);
+      out.name("up").value(up);
+      out.name("rtt").value(rtt);
+
+      out.name("server");
+      if (server == null) {
+        out.nullValue();
+      } else {
+        out.beginObject();
+        out.name("workersTotal").value(server.workersTotal);
+        out.name("workersAvailable").value(server.workersAvailable);
+        out.name("workersBusy").value(server.workersBusy);
+        out.name("queueDepth").value(server.queueDepth);
+        out.name("uptime").value(server.uptime);
+        out.name("backendPort").value(server.backendPort);
+        out.endObject();
+      }
+
+      if (clientMetrics) {
+        out.name("client");
+        out.beginObject();
+        out.name("jobsInFlight").value(jobsInFlight);
+        out.name("roundTrips").value(roundTrips);
+        out.name("roundTripTime").value(roundTripTime);
+        out.name("retries").value(retries);
+        out.name("timeouts").value(timeouts);
+        out.name("connectionsOpened").value(connectionsOpened);
+        out.name("socketRebuilds").value(socketRebuilds);
+        out.endObject();
+      }
+
+      out.endObject();
+    } catch (IOException e) {
+      // A StringWriter doesn't throw.
+      throw new RuntimeException(e);
+    }
+
+    return json.toString();
+  }
+
+  public String toPrometheus() {
+    StringBuilder out = new StringBuilder();
+    String labels = String.format("{host=\"%s\",port=\"%d\"}", host, port);
+
+    metric(out, "alda_server_up", "gauge",
+           "Whether the server answered the status request.",
+           labels, up ? 1 : 0);
+
+    if (rtt != null) {
+      metric(out, "alda_status_rtt_seconds", "gauge",
+             "How long the status request took to be answered.",
+             labels, rtt / 1000.0);
+    }
+
+    if (server != null) {
+      metric(out, "alda_workers_total", "gauge",
+             "The number of worker processes the server has.",
+             labels, server.workersTotal);
+      metric(out, "alda_workers_available", "gauge",
+             "The number of workers that are ready for a request.",
+             labels, server.workersAvailable);
+      if (server.workersBusy != null) {
+        metric(out, "alda_workers_busy", "gauge",
+               "The number of workers that are handling a request.",
+               labels, server.workersBusy);
+      }
+      if (server.queueDepth != null) {
+        metric(out, "alda_queue_depth", "gauge",
+               "The number of requests waiting for a worker.",
+               labels, server.queueDepth);
+      }
+      if (server.uptime != null) {
+        metric(out, "alda_server_uptime_seconds", "gauge",
+               "How long the server has been up.",
+               labels, server.uptime / 1000.0);
+      }
+    }
+
+    if (clientMetrics) clientMetrics(out);
+
+    return out.toString();
+  }
+
+  private void clientMetrics(StringBuilder out) {
+    metric(out, "alda_client_jobs_in_flight", "gauge",
+           "Play/export jobs submitted by this client that aren't done.",
+           "", jobsInFlight);
+
+    header(out, "alda_client_request_rtt_seconds", "summary",
+           "Time from sending a request to receiving its reply.");
+    sample(out, "alda_client_request_rtt_seconds_sum", "",
+           roundTripTime / 1000.0);
+    sample(out, "alda_client_request_rtt_seconds_count", "", roundTrips);
+
+    metric(out, "alda_client_retries_total", "counter",
+           "Requests re-sent after an attempt went unanswered.",
+           "", retries);
+    metric(out, "alda_client_timeouts_total", "counter",
+           "Requests that went unanswered after all retries.",
+           "", timeouts);
+    metric(out, "alda_client_connections_opened_total", "counter",
+           "Sockets opened to servers.",
+           "", connectionsOpened);
+    metric(out, "alda_client_socket_rebuilds_total", "counter",
+           "Sockets re-created after a timeout or failure.",
+           "", socketRebuilds);
+  }
+
+  private static void metric(StringBuilder out, String name, String type,
+                             String help, String labels, double value) {
+    header(out, name, type, help);
+    sample(out, name, labels, value);
+  }
+
+  private static void header(StringBuilder out, String name, String type,
+                             String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels,
+                             double value) {
+    out.append(name).append(labels).append(' ');
+    if (value == Math.rint(value)) {
+      out.append((long) value);
+    } else {
+      out.append(String.format(Locale.ROOT, "%.6f", value));
+    }
+    out.append('\n');
+  }
+}
@@ -0,0 +1,137 @@
+package alda;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A Writer that encodes what is written to it as UTF-8, into a byte buffer
+ * that can be reused from one message to the next.
+ *
+ * Unlike an OutputStreamWriter, it encodes Strings straight into the buffer,
+ * without first copying them into a char array, which matters when the String
+ * is a 1 MB score.
+ *
+ * Not thread-safe; see AldaCodec.toJsonBytes.
+ */
+class Utf8FrameWriter extends Writer {
+  private byte[] buf;
+  private int count = 0;
+
+  // Set when the last char written was the first half of a surrogate pair.
+  private char highSurrogate = 0;
+
+  Utf8FrameWriter(int initialCapacity) {
+    buf = new byte[initialCapacity];
+  }
+
+  void reset() {
+    count = 0;
+    highSurrogate = 0;
+  }
+
+  int size() {
+    return count;
+  }
+
+  int capacity() {
+    return buf.length;
+  }
+
+  /**
+   * A copy of the bytes written so far, e.g. to send as a message frame.
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(buf, count);
+  }
+
+  private void ensureCapacity(int extra) {
+    if (count + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+    }
+  }
+
+  private void encode(char c) {
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        buf[count++] = (byte) (0xf0 | (codePoint >> 18));
+        buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        return;
+      }
+
+      // An unpaired surrogate, which can't be encoded.
+      buf[count++] = '?';
+    }
+
+    if (c < 0x80) {
+      buf[count++] = (byte) c;
+    } else if (c < 0x800) {
+      buf[count++] = (byte) (0xc0 | (c >> 6));
+      buf[count++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buf[count++] = '?';
+    } else {
+      buf[count++] = (byte) (0xe0 | (c >> 12));
+      buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buf[count++] = (byte) (0x80 | (c & 0x3f));
+    }
+  }
+
+  @Override
+  public void write(int c) {
+    ensureCapacity(4);
+    encode((char) c);
+  }
+
+  @Override
+  public void write(char[] chars, int off, int len) {
+    // At most 3 bytes per char (a surrogate pair is 4 bytes for 2 chars).
+    ensureCapacity(len * 3 + 1);
+    for (int i = off; i < off + len; i++) {
+      encode(chars[i]);
+    }
+  }
+
+  @Override
+  public void write(String s, int off, int len) {
+    ensureCapacity(len * 3 + 1);
+
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      // Fast path for runs of ASCII, which is most of any score.
+      if (highSurrogate == 0) {
+        byte[] buf = this.buf;
+        int count = this.count;
+        char c;
+        while (i < end && (c = s.charAt(i)) < 0x80) {
+          buf[count++] = (byte) c;
+          i++;
+        }
+        this.count = count;
+        if (i == end) return;
+      }
+
+      encode(s.charAt(i++));
+    }
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() {
+    if (highSurrogate != 0) {
+      ensureCapacity(1);
+      buf[count++] = '?';
+      highSurrogate = 0;
+    }
+  }
+}
@@ -13,10 +13,13 @@ import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.InputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URI;
 import java.net.HttpURLConnection;
+import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -28,6 +31,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
 import jline.console.ConsoleReader;
@@ -44,6 +48,18 @@ import org.apache.commons.lang3.SystemUtils;
 
 public final class Util {
 
+  /**
+   * Makes the client's background threads, which are daemons so that they
+   * never keep the JVM from exiting.
+   */
+  public static ThreadFactory daemonThreadFactory(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
   // Thread.sleep, but with boilerplate handling InterruptedException by
   // re-interrupting the thread and throwing a RuntimeException.
   public static void sleep(int ms) {
@@ -168,7 +184,12 @@ public final class Util {
     return fromStdIn;
   }
 
+  // The alda.program system property overrides the location of the program
+  // that forkProgram starts (e.g. a built alda.jar, when running from source).
   private static Path getProgramPathImpl() throws URISyntaxException {
+    String program = System.getProperty("alda.program");
+    if (program != null) return Paths.get(program);
+
     URI pathURI = Main.class.getProtectionDomain().getCodeSource().getLocation().toURI();
     return Paths.get(pathURI);
   }
@@ -181,6 +202,23 @@ public final class Util {
     return getProgramPathImpl().getParent();
   }
 
+  // Where Alda keeps its local state (e.g. ServerRoutes). The alda.home system
+  // property overrides the default, ~/.alda.
+  public static Path getAldaDir() {
+    String dir = System.getProperty("alda.home");
+    if (dir != null) return Paths.get(dir);
+    return Paths.get(System.getProperty("user.home"), ".alda");
+  }
+
+  // A TCP port that nothing is listening on right now.
+  public static int findOpenPort() throws SystemException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    } catch (IOException e) {
+      throw new SystemException("Unable to find an open port.", e);
+    }
+  }
+
   public static String version() {
     if (Manifests.exists("alda-version")) {
       return Manifests.read("alda-version");
@@ -314,24 +352,108 @@ public final class Util {
     }
   }
 
-  public static void forkProgram(Object... args)
+  public static Process forkProgram(Object... args)
+    throws URISyntaxException, IOException {
+    return forkProgram(JvmProfile.NONE, args);
+  }
+
+  /**
+   * Starts the Alda program in the background, with the JVM options in
+   * `profile`.
+   *
+   * The options are also passed on via JAVA_TOOL_OPTIONS, so that any JVMs
+   * the program starts in turn (e.g. a server's workers) use them too. When
+   * the program isn't a jar (e.g. the installed alda executable, which
+   * starts a single JVM), that's the only way to pass them on, so that's
+   * where the process is told to create the AppCDS archive.
+   */
+  public static Process forkProgram(JvmProfile profile, Object... args)
     throws URISyntaxException, IOException {
     String programPath = getProgramPath();
+    boolean jar = programPath.endsWith(".jar");
+
+    List<String> command = new ArrayList<String>();
+    if (jar) {
+      command.add("java");
+      command.addAll(profile.options(programPath, true));
+      command.add("-jar");
+      command.add(programPath);
+    } else {
+      command.add(programPath);
+    }
+
+    for (Object arg : args) {
+      command.add(String.valueOf(arg));
+    }
+
+    ProcessBuilder pb = new ProcessBuilder(command);
 
-    Object[] program;
-    if (programPath.endsWith(".jar")) {
-      program = new Object[]{"java", "-jar", programPath};
+    // If this process was told to create the archive, the new one mustn't.
+    String existing = System.getenv("JAVA_TOOL_OPTIONS");
+    if (existing != null) {
+      existing = JvmProfile.withoutArchiveCreation(existing);
+    }
+
+    List<String> inherited = profile.options(programPath, !jar);
+    String options = String.join(" ", inherited);
+    if (existing != null && !existing.isEmpty()) {
+      options = inherited.isEmpty() ? existing : existing + " " + options;
+    }
+
+    if (options.isEmpty()) {
+      pb.environment().remove("JAVA_TOOL_OPTIONS");
     } else {
-      program = new Object[]{programPath};
+      pb.environment().put("JAVA_TOOL_OPTIONS", options);
+    }
+
+    // Either the command line or JAVA_TOOL_OPTIONS may have claimed the
+    // archive for this process.
+    boolean createsArchive = JvmProfile.createsArchive(command) ||
+                             JvmProfile.createsArchive(inherited);
+
+    Process p;
+    try {
+      p = pb.start();
+    } catch (IOException e) {
+      if (createsArchive) JvmProfile.releaseArchive(programPath);
+      throw e;
     }
 
-    Object[] objectArray = concat(program, args);
-    String[] execArgs = Arrays.copyOf(objectArray, objectArray.length, String[].class);
+    if (createsArchive) JvmProfile.archiveClaimedBy(programPath, pidOf(p));
 
-    Process p = Runtime.getRuntime().exec(execArgs);
     p.getInputStream().close();
     p.getOutputStream().close();
     p.getErrorStream().close();
+    return p;
+  }
+
+  // The PID of a process that we started, or -1 if we can't tell. (Process.pid
+  // is Java 9+; on Java 8, Unix processes have a private `pid` field.)
+  public static int pidOf(Process p) {
+    try {
+      return (int) (long) (Long) Process.class.getMethod("pid").invoke(p);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8
+    }
+
+    try {
+      Field pid = p.getClass().getDeclaredField("pid");
+      pid.setAccessible(true);
+      return pid.getInt(p);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  // The PID of this process.
+  public static int getPid() {
+    // e.g. "12345@hostname"
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    try {
+      return Integer.parseInt(name.substring(0, name.indexOf('@')));
+    } catch (RuntimeException e) {
+      return -1;
+    }
   }
 
   public static void runProgramInFg(String... args)
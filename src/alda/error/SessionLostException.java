@@ -0,0 +1,16 @@
+package alda.error;
+
+/**
+ * The worker no longer has a REPL session's score, e.g. because it was
+ * restarted. The client recovers by sending the whole score again.
+ */
+public class SessionLostException extends AldaException {
+
+  public SessionLostException(String msg) {
+    super(msg);
+  }
+
+  @Override
+  public ExitCode getExitCode() { return ExitCode.RUNTIME_ERROR; }
+
+}
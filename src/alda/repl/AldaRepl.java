@@ -6,7 +6,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,9 +21,12 @@ import org.fusesource.jansi.Ansi.Color;
 import static org.fusesource.jansi.Ansi.*;
 import static org.fusesource.jansi.Ansi.Color.*;
 
+import alda.AldaHeartbeat;
+import alda.AldaHeartbeat.Liveness;
 import alda.AldaServer;
 import alda.AldaResponse;
 import alda.AldaResponse.AldaScore;
+import alda.ReplSession;
 import alda.error.AlreadyUpException;
 import alda.error.ExitCode;
 import alda.error.InvalidOptionsException;
@@ -33,6 +38,8 @@ import alda.Util;
 
 import alda.repl.commands.ReplCommand;
 import alda.repl.commands.ReplCommandManager;
+import alda.repl.commands.ReplLoad;
+import alda.repl.commands.ReplNew;
 
 public class AldaRepl {
   public static final String ASCII_ART  =
@@ -56,15 +63,22 @@ public class AldaRepl {
   private ReplCommandManager manager;
 
   private StringBuffer history;
+  // The score as the server has it, so that we don't need to send the whole
+  // history with every line.
+  private ReplSession session;
   private FileHistory fileHistory;
 
   private String promptPrefix = "";
 
+  // Server liveness notices from the heartbeat, for showNotices.
+  private final Queue<String> notices = new ConcurrentLinkedQueue<String>();
+
   public AldaRepl(AldaServer server, boolean verbose) {
     this.server = server;
     server.setQuiet(true);
     this.verbose = verbose;
     history = new StringBuffer();
+    session = new ReplSession();
     manager = new ReplCommandManager();
     try {
       r = new ConsoleReader();
@@ -218,6 +232,34 @@ public class AldaRepl {
     System.out.println();
   }
 
+  // Called from the heartbeat's thread when it notices that the server has
+  // gone down or come back up. The main thread is usually blocked reading a
+  // line at that point, and the console reader isn't safe to write to from
+  // another thread, so the notice waits for showNotices.
+  private void onLivenessChanged(Liveness previous, Liveness current) {
+    String notice;
+    if (current == Liveness.DOWN) {
+      notice = "The server on port " + server.port + " has stopped responding.";
+    } else if (previous == Liveness.DOWN && current == Liveness.UP) {
+      notice = "The server on port " + server.port + " is back up.";
+    } else {
+      return;
+    }
+
+    if (!server.noColor) notice = ansi().fg(YELLOW).a(notice).reset().toString();
+
+    notices.add(notice);
+  }
+
+  // Prints the notices that have come in since last time. Only called from the
+  // main thread, between reading lines.
+  private void showNotices() {
+    String notice;
+    while ((notice = notices.poll()) != null) {
+      System.out.println(notice);
+    }
+  }
+
   private String asciiArt() {
     if (server.noColor) return ASCII_ART;
     return ansi().fg(BLUE).a(ASCII_ART).reset().toString();
@@ -238,11 +280,20 @@ public class AldaRepl {
       offerToStartServer();
     }
 
+    // From here on, keep an eye on the server in the background, so that we
+    // can tell the user if it goes down.
+    server.startHeartbeat(AldaHeartbeat.DEFAULT_INTERVAL)
+          .addListener(this::onLivenessChanged);
+
     while (true) {
       String input = "";
       try {
+        showNotices();
         input = r.readLine(promptPrefix + PROMPT);
         fileHistory.flush();
+        // Anything that came in while the line was being typed is shown
+        // before it's acted on.
+        showNotices();
       } catch (IOException e) {
         System.err.println("An error was detected when we tried to read a line.");
         e.printStackTrace();
@@ -282,6 +333,10 @@ public class AldaRepl {
           // Run the command
           try {
             cmd.act(arguments.trim(), history, server, r, this::setPromptPrefix);
+            // These replace the score, so the server has to start over.
+            if (cmd instanceof ReplNew || cmd instanceof ReplLoad) {
+              session.reset();
+            }
           } catch (NoResponseException e) {
             System.out.println();
             offerToStartServer();
@@ -300,11 +355,17 @@ public class AldaRepl {
           System.err.println("No command '" + splitString[0] + "' was found");
         }
       } else {
+        // Don't make the user wait on a request that we already know will
+        // time out.
+        if (!server.checkForConnection()) {
+          offerToStartServer();
+          continue;
+        }
+
         try {
           // Play the stuff we just got, with history as context
-          AldaResponse playResponse = server.playFromRepl(
-            input, history.toString(), null, null
-          );
+          AldaResponse playResponse =
+            server.playFromRepl(input, history, session);
 
           // If we have no exceptions, add to history
           history.append(input);
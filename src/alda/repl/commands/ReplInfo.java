@@ -1,27 +1,20 @@
 package alda.repl.commands;
 
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.reflect.TypeToken;
 
+import alda.AldaCodec;
 import alda.AldaResponse.AldaScore;
+import alda.AldaScoreInfo;
 import alda.AldaServer;
-import alda.Util;
 import alda.error.NoResponseException;
 import alda.error.ParseError;
 import jline.console.ConsoleReader;
 
 public class ReplInfo implements ReplCommand {
 
-  private Gson gson = new Gson();
   private final String NO_RESULTS_PLACEHOLDER = "(none)";
 
   @Override
@@ -34,9 +27,9 @@ public class ReplInfo implements ReplCommand {
       if(res == null) {
         System.err.println("An internal error occurred when reading the score.");
       } else {
-          JsonObject scoreMap = gson.fromJson(res, JsonObject.class);
+          AldaScoreInfo info = AldaCodec.scoreInfoFromJson(res);
 
-          System.out.println(getScoreInfoText(scoreMap));
+          System.out.println(getScoreInfoText(info));
       }
 
     } catch(ParseError | JsonParseException e) {
@@ -44,59 +37,30 @@ public class ReplInfo implements ReplCommand {
     }
   }
 
-  private StringBuilder getScoreInfoText(JsonObject scoreMap) throws ParseError, JsonParseException {
+  private StringBuilder getScoreInfoText(AldaScoreInfo info) {
     StringBuilder sb = new StringBuilder();
     sb.append("Instruments: ")
-      .append(getInstrumentsString(scoreMap))
+      .append(joinOrPlaceholder(info.instruments))
       .append(System.lineSeparator());
 
     sb.append("Current instruments: ")
-      .append(getCurrentInstrumentsString(scoreMap))
+      .append(joinOrPlaceholder(info.currentInstruments))
       .append(System.lineSeparator());
 
     sb.append("Events: ")
-      .append(getEventsAmount(scoreMap))
+      .append(info.events)
       .append(System.lineSeparator());
 
     sb.append("Markers: ")
-      .append(getMarkersString(scoreMap))
+      .append(joinOrPlaceholder(info.markers))
       .append(System.lineSeparator());
 
     return sb;
   }
 
-  private String getInstrumentsString(JsonObject scoreMap) {
-    JsonObject instrJson = scoreMap.getAsJsonObject("instruments");
-    String instr = instrJson.entrySet()
-      .stream()
-      .map(e -> e.getKey())
-      .collect(Collectors.joining(", "));
-    return instr.length() == 0 ? NO_RESULTS_PLACEHOLDER : instr;
-  }
-
-  private String getCurrentInstrumentsString(JsonObject scoreMap) {
-    JsonArray curInstrJson = scoreMap.getAsJsonArray("current-instruments");
-    List<String> curInstrLst = gson.fromJson(curInstrJson, new TypeToken<List<String>>(){}.getType());
-    String instr = curInstrLst
-      .stream()
-      .collect(Collectors.joining(", "));
-    return instr.length() == 0 ? NO_RESULTS_PLACEHOLDER : instr;
-  }
-
-  private String getMarkersString(JsonObject scoreMap) {
-    JsonObject markersJson = scoreMap.getAsJsonObject("markers");
-    String markers = markersJson.entrySet()
-      .stream()
-      .sorted(Comparator.comparing(Map.Entry::getValue, Util.JsonElementFloatComparator.INSTANCE))
-      .map(e -> e.getKey())
-      .collect(Collectors.joining(", "));
-    return markers.length() == 0 ? NO_RESULTS_PLACEHOLDER : markers;
-  }
-
-  private int getEventsAmount(JsonObject scoreMap) {
-    JsonArray eventsJson = scoreMap.getAsJsonArray("events");
-    int nEvents = eventsJson.size();
-    return nEvents;
+  private String joinOrPlaceholder(List<String> items) {
+    String joined = String.join(", ", items);
+    return joined.length() == 0 ? NO_RESULTS_PLACEHOLDER : joined;
   }
 
   @Override
@@ -1,14 +1,10 @@
 package alda.repl.commands;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
-
+import alda.AldaCodec;
 import alda.AldaServer;
 import alda.AldaResponse.AldaScore;
 import alda.error.NoResponseException;
 import alda.error.ParseError;
-import alda.Util;
 
 import java.util.function.Consumer;
 import jline.console.ConsoleReader;
@@ -26,10 +22,7 @@ public class ReplMap implements ReplCommand {
       String res = server.parseRaw(history.toString(), "data");
 
       if (res != null) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        JsonObject json = gson.fromJson(res, JsonObject.class);
-
-        System.out.println(gson.toJson(json));
+        System.out.println(AldaCodec.prettyPrint(res));
       } else {
         System.err.println("An internal error occured when reading the map.");
       }
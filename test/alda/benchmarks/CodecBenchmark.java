@@ -0,0 +1,80 @@
+package alda.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import alda.AldaCodec;
+import alda.AldaRequest;
+import alda.AldaRequestOptions;
+import alda.AldaResponse;
+
+/*
+ * Compares encoding requests and decoding responses the way the client used to
+ * (a new reflection-based Gson instance per message) with AldaCodec.
+ *
+ * Run with `boot bench`, or e.g. `boot bench -x "CodecBenchmark.*Response"`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+  // The size of the REPL history / score body sent with the request.
+  @Param({"100", "10000"})
+  public int bodySize;
+
+  private AldaRequest request;
+  private String responseJson;
+
+  @Setup
+  public void setup() {
+    StringBuilder body = new StringBuilder();
+    while (body.length() < bodySize) body.append("piano: c d e f g ");
+
+    request = new AldaRequest("tcp://localhost", 27713);
+    request.command = "play";
+    request.body = body.toString();
+    request.options = new AldaRequestOptions();
+    request.options.history = body.toString();
+    request.options.from = "0:05";
+    request.options.jobId = "6f1ae6c2-4d32-4d8b-9f6a-3c7f0a0c6b57";
+    request.requestId = "42";
+
+    responseJson =
+      "{\"success\":true,\"pending\":false,\"signal\":\"playing\"," +
+      "\"body\":\"Playing...\",\"jobId\":\"6f1ae6c2-4d32-4d8b-9f6a-3c7f0a0c6b57\"," +
+      "\"requestId\":\"42\",\"noWorker\":false," +
+      "\"score\":{\"chord-mode\":false," +
+      "\"current-instruments\":[\"piano-sFDvo\",\"bassoon-4aXj2\"]," +
+      "\"nicknames\":{\"duet\":[\"piano-sFDvo\",\"bassoon-4aXj2\"]}}}";
+  }
+
+  @Benchmark
+  public String reflectionRequest() {
+    return new Gson().toJson(request);
+  }
+
+  @Benchmark
+  public String codecRequest() {
+    return AldaCodec.toJson(request);
+  }
+
+  @Benchmark
+  public AldaResponse reflectionResponse() {
+    return new Gson().fromJson(responseJson, AldaResponse.class);
+  }
+
+  @Benchmark
+  public AldaResponse codecResponse() {
+    return AldaCodec.responseFromJson(responseJson);
+  }
+}
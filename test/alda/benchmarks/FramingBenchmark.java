@@ -0,0 +1,86 @@
+package alda.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import alda.AldaCodec;
+import alda.AldaRequest;
+import alda.AldaRequestOptions;
+import alda.AldaResponse;
+
+/*
+ * Compares building request frames and reading response frames via an
+ * intermediate String (as ZMsg.addString / popString do) with encoding and
+ * decoding UTF-8 frame bytes directly.
+ *
+ * Allocation is the interesting part; run with the GC profiler:
+ *
+ *   boot bench -x "FramingBenchmark -prof gc"
+ *
+ * and compare gc.alloc.rate.norm (bytes allocated per operation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FramingBenchmark {
+  // The size of the score, in characters.
+  @Param({"1048576"})
+  public int scoreSize;
+
+  private AldaRequest request;
+  private byte[] responseFrame;
+
+  @Setup
+  public void setup() {
+    StringBuilder score = new StringBuilder();
+    while (score.length() < scoreSize) score.append("piano: c8 d e f g a b > c < ");
+
+    request = new AldaRequest("tcp://localhost", 27713);
+    request.command = "play";
+    request.body = "piano: c";
+    request.options = new AldaRequestOptions();
+    request.options.history = score.toString();
+    request.requestId = "42";
+
+    // e.g. the response to a `parse` request
+    AldaResponse response = new AldaResponse();
+    response.success = true;
+    response.body = score.toString();
+    response.requestId = "42";
+    response.noWorker = true;
+    responseFrame = AldaCodec.gson()
+                             .toJson(response)
+                             .getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] stringRequestFrame() {
+    return AldaCodec.toJson(request, false).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] byteRequestFrame() {
+    return AldaCodec.toJsonBytes(request, false);
+  }
+
+  @Benchmark
+  public AldaResponse stringResponseFrame() {
+    return AldaCodec.responseFromJson(
+      new String(responseFrame, StandardCharsets.UTF_8)
+    );
+  }
+
+  @Benchmark
+  public AldaResponse byteResponseFrame() {
+    return AldaCodec.responseFromJson(responseFrame);
+  }
+}
@@ -0,0 +1,91 @@
+package alda.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import alda.AdaptiveJobStatusPoller;
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.FixedIntervalJobStatusPoller;
+import alda.testutils.StubAldaServer;
+
+/*
+ * Measures time-to-"playing" for a play request, and how many job status
+ * requests it took to get there, with each job status polling strategy.
+ *
+ * The stub server reports each job as "parsing" for `parsingTime` ms, then
+ * "playing". The score is the average time per play; `statusRequests` is the
+ * total number of job status requests over `plays` plays.
+ *
+ *   boot bench -x "JobStatusPollingBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JobStatusPollingBenchmark {
+  @Param({"fixed", "adaptive"})
+  public String strategy;
+
+  @Param({"20", "200"})
+  public long parsingTime;
+
+  private StubAldaServer stub;
+  private AldaServer server;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long plays;
+    public long statusRequests;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    stub = new StubAldaServer(true);
+    stub.parsingTime = parsingTime;
+
+    AldaServerOptions serverOpts = new AldaServerOptions();
+    serverOpts.host = "localhost";
+    serverOpts.port = stub.getPort();
+    serverOpts.quiet = true;
+    serverOpts.noColor = true;
+    server = new AldaServer(serverOpts);
+
+    switch (strategy) {
+      case "fixed":
+        server.setJobStatusPoller(new FixedIntervalJobStatusPoller(250));
+        break;
+      case "adaptive":
+        server.setJobStatusPoller(new AdaptiveJobStatusPoller());
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown strategy: " + strategy);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    stub.close();
+  }
+
+  @Benchmark
+  public AldaResponse timeToPlaying(Counters counters) throws Exception {
+    int before = stub.jobStatusRequests.get();
+    AldaResponse res = server.play("piano: c", null, null);
+    counters.plays++;
+    counters.statusRequests += stub.jobStatusRequests.get() - before;
+    return res;
+  }
+}
@@ -0,0 +1,96 @@
+package alda.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import alda.AldaProcess;
+import alda.AldaProcessReaderLinux;
+import alda.AldaProcessReaderUnix;
+import alda.IAldaProcessReader;
+
+/*
+ * Compares listing Alda processes by running `ps ax` (AldaProcessReaderUnix)
+ * with reading /proc directly (AldaProcessReaderLinux). Linux only.
+ *
+ * To simulate a busy host, the setup starts `extraProcesses` idle processes
+ * (plus a few that look like Alda servers), on top of whatever is already
+ * running. It may be necessary to raise `ulimit -u` for the larger values.
+ *
+ *   boot bench -x "ProcessReaderBenchmark -p extraProcesses=2000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProcessReaderBenchmark {
+  @Param({"ps", "proc"})
+  public String reader;
+
+  @Param({"0", "2000"})
+  public int extraProcesses;
+
+  private static final int ALDA_PROCESSES = 3;
+
+  private IAldaProcessReader processReader;
+  private final List<Process> processes = new ArrayList<Process>();
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (!AldaProcessReaderLinux.isSupported()) {
+      throw new IllegalStateException("This benchmark needs /proc.");
+    }
+
+    switch (reader) {
+      case "ps":
+        processReader = new AldaProcessReaderUnix();
+        break;
+      case "proc":
+        processReader = new AldaProcessReaderLinux();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown reader: " + reader);
+    }
+
+    for (int i = 0; i < extraProcesses; i++) {
+      processes.add(new ProcessBuilder("sleep", "600").start());
+    }
+
+    // The `:` keeps the shell from replacing itself with `sleep`, which would
+    // lose the Alda arguments.
+    for (int i = 0; i < ALDA_PROCESSES; i++) {
+      processes.add(new ProcessBuilder(
+        "sh", "-c", "sleep 600; :", "alda",
+        "--port", Integer.toString(47000 + i),
+        "--alda-fingerprint", "server"
+      ).start());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (Process p : processes) p.destroy();
+    processes.clear();
+  }
+
+  @Benchmark
+  public List<AldaProcess> getProcesses() throws Exception {
+    List<AldaProcess> found = processReader.getProcesses();
+    if (found.size() < ALDA_PROCESSES) {
+      throw new IllegalStateException(
+        "Expected to find at least " + ALDA_PROCESSES + " Alda processes."
+      );
+    }
+    return found;
+  }
+}
@@ -0,0 +1,110 @@
+package alda.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import alda.AldaClient;
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.JvmProfile;
+import alda.Util;
+
+/*
+ * Measures `alda up` time-to-ready (the server is up and a worker is
+ * available) with each JVM profile.
+ *
+ * This starts real Alda servers, so it needs a built Alda jar, given by the
+ * alda.program system property:
+ *
+ *   BOOT_JVM_OPTIONS="-Dalda.program=/path/to/alda.jar" \
+ *     boot bench -x "StartupBenchmark"
+ *
+ * The warmup iteration creates the class-data sharing archive for the
+ * profiles that use one, so the measured iterations show the startup time
+ * with the archive. (The archive is kept in a temporary ~/.alda for the
+ * duration of the trial.)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class StartupBenchmark {
+  @Param({"none", "long-lived"})
+  public String profile;
+
+  @Param({"2"})
+  public int workers;
+
+  private Path aldaHome;
+  private String previousAldaHome;
+  private AldaServer server;
+  private int port;
+
+  @Setup(Level.Trial)
+  public void setupTrial() throws Exception {
+    if (System.getProperty("alda.program") == null) {
+      throw new IllegalStateException(
+        "Set the alda.program system property to the path of an Alda jar."
+      );
+    }
+
+    aldaHome = Files.createTempDirectory("alda-startup-benchmark");
+    previousAldaHome = System.setProperty("alda.home", aldaHome.toString());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() throws Exception {
+    if (previousAldaHome == null) {
+      System.clearProperty("alda.home");
+    } else {
+      System.setProperty("alda.home", previousAldaHome);
+    }
+
+    FileUtils.deleteDirectory(aldaHome.toFile());
+  }
+
+  @Setup(Level.Invocation)
+  public void setup() throws Exception {
+    port = Util.findOpenPort();
+
+    AldaServerOptions serverOpts = new AldaServerOptions();
+    serverOpts.host = "localhost";
+    serverOpts.port = port;
+    serverOpts.timeout = 60;
+    serverOpts.quiet = true;
+    serverOpts.noColor = true;
+    serverOpts.jvmProfile = JvmProfile.forName(profile, "server");
+    server = new AldaServer(serverOpts);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws Exception {
+    // Stop the server and wait for it to exit (which is when the JVM writes
+    // the class-data sharing archive, if it's creating one).
+    int pid = AldaClient.findServerPid(port);
+    server.down();
+    server.waitForExit(pid);
+  }
+
+  @Benchmark
+  public void upUntilReady() throws Exception {
+    server.upBg(workers);
+  }
+}
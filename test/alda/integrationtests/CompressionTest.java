@@ -0,0 +1,87 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.server;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import alda.AldaClientMetrics;
+import alda.AldaCodec;
+import alda.AldaRequest;
+import alda.AldaRequestOptions;
+import alda.testutils.StubAldaServer;
+
+public class CompressionTest {
+  private static String score(int size) {
+    StringBuilder sb = new StringBuilder("piano: ");
+    while (sb.length() < size) sb.append("c8 d e f g a b > c < ");
+    return sb.toString();
+  }
+
+  private static AldaRequest parseRequest(int port, String body,
+                                          String history) {
+    AldaRequest req = new AldaRequest("tcp://localhost", port);
+    req.command = "parse";
+    req.body = body;
+    req.options = new AldaRequestOptions();
+    req.options.history = history;
+    return req;
+  }
+
+  @Test
+  public void largeFieldsAreCompressedForServersThatSupportIt()
+    throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, AldaCodec.DEFLATE)) {
+      primeCapabilities(server(stub));
+
+      String body = score(100);
+      String history = score(200 * 1024);
+      long savedBefore = AldaClientMetrics.bytesSaved();
+
+      parseRequest(stub.getPort(), body, history).send();
+
+      assertEquals(body, stub.lastBody);
+      assertEquals(history, stub.lastHistory);
+      assertTrue("Expected compression to save most of the history.",
+                 AldaClientMetrics.bytesSaved() - savedBefore >
+                   history.length() / 2);
+    }
+  }
+
+  @Test
+  public void nothingIsCompressedForOtherServers() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      primeCapabilities(server(stub));
+
+      String history = score(200 * 1024);
+      long compressedBefore = AldaClientMetrics.compressedFields();
+
+      parseRequest(stub.getPort(), null, history).send();
+
+      assertEquals(history, stub.lastHistory);
+      assertEquals(compressedBefore, AldaClientMetrics.compressedFields());
+    }
+  }
+
+  @Test
+  public void requestsCanBeReadBack() {
+    AldaRequest req = parseRequest(0, "piano: c", score(200 * 1024));
+    req.requestId = "42";
+    req.options.jobs = Collections.singletonList(
+      new AldaRequestOptions.JobRef("d29ya2Vy", "job-1")
+    );
+
+    AldaRequest read =
+      AldaCodec.gson().fromJson(AldaCodec.toJson(req, true), AldaRequest.class);
+
+    assertEquals("parse", read.command);
+    assertEquals("piano: c", read.body);
+    assertEquals("42", read.requestId);
+    assertEquals(req.options.history, read.options.history);
+    assertEquals("job-1", read.options.jobs.get(0).jobId);
+    assertEquals("d29ya2Vy", read.options.jobs.get(0).workerAddress);
+  }
+}
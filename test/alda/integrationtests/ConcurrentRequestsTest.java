@@ -0,0 +1,98 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import alda.AldaRequest;
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.testutils.StubAldaServer;
+
+/*
+ * Drives many concurrent requests from many threads through the client, against
+ * a stub server, and checks that every caller gets the response to its own
+ * request.
+ */
+public class ConcurrentRequestsTest {
+  private static final int THREADS = 32;
+  private static final int REQUESTS = 500;
+  private static final int PLAYS = 200;
+
+  private void assertEachCallerGetsItsOwnResponse(StubAldaServer stub)
+    throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+
+      for (int i = 0; i < REQUESTS; i++) {
+        boolean blocking = i % 2 == 0;
+        results.add(pool.submit((Callable<Void>) () -> {
+          AldaRequest req = new AldaRequest("tcp://localhost", stub.getPort());
+          req.command = "ping";
+
+          AldaResponse res = blocking ? req.send()
+                                      : AldaRequest.await(req.sendAsync());
+
+          assertEquals("Got the response to a different request.",
+                       req.requestId, res.body);
+          return null;
+        }));
+      }
+
+      for (Future<Void> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void pipelinedRequests() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      assertEachCallerGetsItsOwnResponse(stub);
+    }
+  }
+
+  @Test
+  public void requestsToServerWithoutRequestIds() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(false)) {
+      assertEachCallerGetsItsOwnResponse(stub);
+    }
+  }
+
+  @Test
+  public void concurrentPlays() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      AldaServer server = server(stub);
+
+      ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+      try {
+        List<Future<AldaResponse>> results = new ArrayList<>();
+
+        for (int i = 0; i < PLAYS; i++) {
+          results.add(pool.submit(() -> server.play("piano: c", null, null)));
+        }
+
+        for (Future<AldaResponse> result : results) {
+          AldaResponse res = result.get(30, TimeUnit.SECONDS);
+          assertTrue(res.success);
+          assertFalse(res.pending);
+          assertEquals("success", res.body);
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import alda.AldaCodec;
+import alda.AldaRequest;
+import alda.AldaRequestOptions;
+import alda.AldaResponse;
+
+public class FramingTest {
+  private static final String[] SCORES = {
+    "",
+    "piano: c d e f g",
+    "piano \"ピアノ\": (tempo 120) c d e # ünïcödé",
+    "(comment \"𝄞 treble clef\") piano: c",
+    "lone surrogates: \uD834 and \uDD1E",
+    "\"quotes\", \\backslashes\\, <html> & control chars \u0001\n\t"
+  };
+
+  @Test
+  public void requestFramesMatchTheStringEncoding() {
+    for (String score : SCORES) {
+      AldaRequest req = new AldaRequest("tcp://localhost", 27713);
+      req.command = "play";
+      req.body = score;
+      req.options = new AldaRequestOptions();
+      req.options.history = score + score;
+
+      assertArrayEquals(score,
+                        AldaCodec.toJson(req, false)
+                                 .getBytes(StandardCharsets.UTF_8),
+                        AldaCodec.toJsonBytes(req, false));
+    }
+  }
+
+  @Test
+  public void responsesDecodeFromFrameBytes() {
+    for (String score : SCORES) {
+      AldaResponse res = new AldaResponse();
+      res.success = true;
+      res.body = score;
+      byte[] frame = AldaCodec.gson()
+                              .toJson(res)
+                              .getBytes(StandardCharsets.UTF_8);
+
+      assertEquals(AldaCodec.responseFromJson(
+                     new String(frame, StandardCharsets.UTF_8)
+                   ).body,
+                   AldaCodec.responseFromJson(frame).body);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import alda.AldaHeartbeat;
+import alda.AldaHeartbeat.Liveness;
+import alda.AldaServer;
+import alda.testutils.StubAldaServer;
+
+public class HeartbeatTest {
+  @Test
+  public void heartbeatNoticesWhenTheServerGoesDown() throws Exception {
+    BlockingQueue<Liveness> changes = new LinkedBlockingQueue<Liveness>();
+
+    StubAldaServer stub = new StubAldaServer(true);
+
+    AldaServer server = server(stub);
+
+    AldaHeartbeat heartbeat = server.startHeartbeat(100);
+    heartbeat.addListener((previous, current) -> changes.add(current));
+
+    try {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (heartbeat.getLiveness() != Liveness.UP) {
+        assertTrue("Timed out waiting for the server to be up.",
+                   System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      assertTrue(server.checkForConnection());
+      assertTrue(heartbeat.getLastRtt() >= 0);
+
+      stub.close();
+
+      Liveness liveness;
+      do {
+        liveness = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for the server to be down.", liveness);
+      } while (liveness != Liveness.DOWN);
+
+      long start = System.currentTimeMillis();
+      assertFalse(server.checkForConnection());
+      assertTrue("checkForConnection should answer from the heartbeat.",
+                 System.currentTimeMillis() - start < 50);
+    } finally {
+      server.stopHeartbeat();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.ExponentialBackoff;
+import alda.RetryPolicies;
+import alda.RetryPolicy;
+import alda.error.NoResponseException;
+import alda.testutils.StubAldaServer;
+
+public class IdempotentJobsTest {
+  private RetryPolicy playPolicy;
+  private RetryPolicy idempotentPolicy;
+
+  // Shorter timeouts, so that the tests don't take long.
+  @Before
+  public void setUp() {
+    playPolicy = RetryPolicies.get("play");
+    idempotentPolicy = RetryPolicies.get(RetryPolicies.IDEMPOTENT_JOB);
+    RetryPolicies.set("play", ExponentialBackoff.fixed(300, 0));
+    RetryPolicies.set(RetryPolicies.IDEMPOTENT_JOB,
+                      ExponentialBackoff.fixed(300, 3));
+  }
+
+  @After
+  public void tearDown() {
+    RetryPolicies.set("play", playPolicy);
+    RetryPolicies.set(RetryPolicies.IDEMPOTENT_JOB, idempotentPolicy);
+  }
+
+  @Test
+  public void lostReplyIsRetriedWhenTheServerSupportsIt() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "idempotent-jobs")) {
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      stub.jobRepliesToDrop.set(1);
+      AldaResponse res = server.play("piano: c", null, null);
+
+      assertTrue(res.success);
+      assertEquals(2, stub.jobRequests.get());
+      assertEquals(1, stub.jobsStarted.size());
+    }
+  }
+
+  @Test
+  public void lostReplyIsNotRetriedOtherwise() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      stub.jobRepliesToDrop.set(1);
+      try {
+        server.play("piano: c", null, null);
+        fail("Expected no response.");
+      } catch (NoResponseException e) {
+        assertEquals(1, stub.jobRequests.get());
+      }
+    }
+  }
+}
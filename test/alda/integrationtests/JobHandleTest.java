@@ -0,0 +1,95 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.FixedIntervalJobStatusPoller;
+import alda.JobHandle;
+import alda.error.UnsuccessfulException;
+import alda.testutils.StubAldaServer;
+import alda.testutils.TestUtil;
+
+public class JobHandleTest {
+  private AldaServer server(StubAldaServer stub) {
+    AldaServer server = TestUtil.server(stub);
+    server.setJobStatusPoller(new FixedIntervalJobStatusPoller(25));
+    return server;
+  }
+
+  @Test
+  public void listenersHearEachStatus() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      stub.parsingTime = 100;
+      List<String> statuses = new CopyOnWriteArrayList<String>();
+
+      JobHandle job = server(stub).playAsync("piano: c", null, null, null)
+                                  .onStatus(update -> statuses.add(update.body));
+      AldaResponse res = job.await(5000);
+
+      assertEquals("playing", res.body);
+      assertSame(res, job.getResponse());
+      assertEquals(Arrays.asList("parsing", "playing"), statuses);
+    }
+  }
+
+  @Test
+  public void manyJobsCanBeInProgressAtOnce() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      stub.parsingTime = 100;
+      AldaServer server = server(stub);
+
+      List<JobHandle> jobs = new ArrayList<JobHandle>();
+      for (int i = 0; i < 10; i++) {
+        jobs.add(server.playAsync("piano: c", null, null, null));
+      }
+
+      for (JobHandle job : jobs) {
+        assertEquals("playing", job.await(5000).body);
+      }
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void awaitCanTimeOut() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      stub.parsingTime = 5000;
+      server(stub).playAsync("piano: c", null, null, null).await(100);
+    }
+  }
+
+  @Test
+  public void cancelledJobsAreStoppedOnTheServer() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "cancel-job")) {
+      stub.parsingTime = 5000;
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      JobHandle job = server.playAsync("piano: c", null, null, null);
+      assertTrue(job.cancel());
+      assertFalse(job.cancel());
+
+      try {
+        job.await(1000);
+        fail("Expected an UnsuccessfulException");
+      } catch (UnsuccessfulException e) {
+        // expected
+      }
+
+      for (int i = 0; i < 100 && stub.jobsCancelled.isEmpty(); i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(stub.jobsStarted, stub.jobsCancelled);
+      assertTrue(stub.jobsCancelled.contains(job.getJobId()));
+    }
+  }
+}
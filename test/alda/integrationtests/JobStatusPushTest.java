@@ -0,0 +1,69 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.FixedIntervalJobStatusPoller;
+import alda.testutils.StubAldaServer;
+
+public class JobStatusPushTest {
+  @Test
+  public void statusIsPushedWhenTheServerSupportsIt() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-push")) {
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      AldaResponse res = server.play("piano: c", null, null);
+
+      assertTrue(res.success);
+      assertFalse(res.pending);
+      assertEquals("success", res.body);
+      assertEquals(1, stub.jobStatusRequests.get());
+    }
+  }
+
+  @Test
+  public void statusIsPolledWhenTheServerDoesntEchoRequestIds()
+    throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(false, "job-status-push")) {
+      stub.parsingTime = 200;
+      AldaServer server = server(stub);
+      server.setJobStatusPoller(new FixedIntervalJobStatusPoller(25));
+      primeCapabilities(server);
+
+      AldaResponse res = server.play("piano: c", null, null);
+
+      // A subscription would have been a single request, holding up any
+      // others until the job was done.
+      assertTrue(res.success);
+      assertEquals(0, stub.jobStatusSubscriptions.get());
+      assertTrue(stub.jobStatusRequests.get() > 1);
+    }
+  }
+
+  @Test
+  public void subscribersGetEachUpdate() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-push")) {
+      AldaServer server = server(stub);
+      List<String> updates = new CopyOnWriteArrayList<String>();
+
+      AldaResponse res = server.subscribeToJobStatus(
+        "stub-worker".getBytes(), "some-job", update -> updates.add(update.body)
+      ).get(5, TimeUnit.SECONDS);
+
+      assertEquals(Arrays.asList("parsing", "playing"), updates);
+      assertEquals("success", res.body);
+      assertFalse(res.pending);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import alda.AldaRequest;
+import alda.AldaRequestOptions;
+import alda.AldaResponse;
+import alda.AldaServer;
+import alda.FixedIntervalJobStatusPoller;
+import alda.JobTracker;
+import alda.testutils.StubAldaServer;
+
+public class JobTrackerTest {
+  private static final byte[] WORKER = "stub-worker".getBytes();
+
+  private List<CompletableFuture<AldaResponse>> trackJobs(StubAldaServer stub,
+                                                          int count) {
+    JobTracker tracker = JobTracker.get("tcp://localhost", stub.getPort());
+    List<CompletableFuture<AldaResponse>> jobs =
+      new ArrayList<CompletableFuture<AldaResponse>>();
+
+    for (int i = 0; i < count; i++) {
+      jobs.add(tracker.track(WORKER, "job-" + i,
+                             new FixedIntervalJobStatusPoller(100),
+                             update -> {}));
+    }
+
+    return jobs;
+  }
+
+  // Starts a play job on the stub, so that it reports the job's progress.
+  private void startJob(StubAldaServer stub, String jobId) throws Exception {
+    AldaRequest req = new AldaRequest("tcp://localhost", stub.getPort());
+    req.command = "play";
+    req.options = new AldaRequestOptions();
+    req.options.jobId = jobId;
+    req.send();
+  }
+
+  @Test
+  public void jobsArePolledInOneBatchWhenTheServerSupportsIt()
+    throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-batch")) {
+      primeCapabilities(server(stub));
+
+      for (CompletableFuture<AldaResponse> job : trackJobs(stub, 5)) {
+        assertEquals("success", job.get(5, TimeUnit.SECONDS).body);
+      }
+
+      assertEquals(1, stub.jobStatusBatchRequests.get());
+      assertEquals(0, stub.jobStatusRequests.get());
+    }
+  }
+
+  @Test
+  public void jobsArePolledTogetherOtherwise() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      for (CompletableFuture<AldaResponse> job : trackJobs(stub, 5)) {
+        assertEquals("success", job.get(5, TimeUnit.SECONDS).body);
+      }
+
+      assertEquals(0, stub.jobStatusBatchRequests.get());
+      assertEquals(5, stub.jobStatusRequests.get());
+    }
+  }
+
+  @Test
+  public void concurrentPlaysShareTheirStatusRequests() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-batch")) {
+      stub.parsingTime = 200;
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+      server.setJobStatusPoller(new FixedIntervalJobStatusPoller(50));
+
+      List<CompletableFuture<AldaResponse>> plays =
+        new ArrayList<CompletableFuture<AldaResponse>>();
+      for (int i = 0; i < 4; i++) {
+        plays.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            return server.play("piano: c", null, null);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }));
+      }
+
+      for (CompletableFuture<AldaResponse> play : plays) {
+        AldaResponse res = play.get(5, TimeUnit.SECONDS);
+        assertTrue(res.success);
+        assertEquals("playing", res.body);
+      }
+
+      assertEquals(0, stub.jobStatusRequests.get());
+      // Each play, polled on its own, would need about 4 polls of its own.
+      assertTrue(stub.jobStatusBatchRequests.get() < 4 * 4);
+    }
+  }
+
+  @Test
+  public void eachJobIsPolledOnItsOwnSchedule() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-batch")) {
+      stub.parsingTime = 300;
+      primeCapabilities(server(stub));
+      startJob(stub, "fast");
+      startJob(stub, "slow");
+
+      JobTracker tracker = JobTracker.get("tcp://localhost", stub.getPort());
+      CompletableFuture<AldaResponse> fastJob =
+        tracker.track(WORKER, "fast", new FixedIntervalJobStatusPoller(5),
+                      update -> {});
+      CompletableFuture<AldaResponse> slowJob =
+        tracker.track(WORKER, "slow", new FixedIntervalJobStatusPoller(200),
+                      update -> {});
+      fastJob.get(5, TimeUnit.SECONDS);
+      slowJob.get(5, TimeUnit.SECONDS);
+
+      int fastPolls = stub.jobStatusPolls.get("fast").get();
+      int slowPolls = stub.jobStatusPolls.get("slow").get();
+      assertTrue("Fast job polled " + fastPolls + " times", fastPolls > 10);
+      assertTrue("Slow job polled " + slowPolls + " times", slowPolls <= 3);
+    }
+  }
+
+  @Test
+  public void jobsArePolledOneByOneIfABatchFails() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "job-status-batch")) {
+      stub.failJobStatusBatches = true;
+      primeCapabilities(server(stub));
+
+      for (CompletableFuture<AldaResponse> job : trackJobs(stub, 3)) {
+        assertEquals("success", job.get(5, TimeUnit.SECONDS).body);
+      }
+
+      assertEquals(1, stub.jobStatusBatchRequests.get());
+      assertEquals(3, stub.jobStatusRequests.get());
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.JvmProfile;
+import alda.Util;
+import alda.testutils.AldaHome;
+
+public class JvmProfileTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  // An "alda executable" that records the JVM options it was given in a file
+  // named after its PID, and then runs for `seconds`.
+  private Path useRecordingProgram(int seconds) throws Exception {
+    Path program = aldaHome.getDir().resolve("alda");
+    Path recorded = Files.createDirectories(
+      aldaHome.getDir().resolve("options")
+    );
+    String script = String.format(
+      "#!/bin/sh%necho \"$JAVA_TOOL_OPTIONS\" > '%s/'$$%nsleep %d%n",
+      recorded, seconds
+    );
+    Files.write(program, script.getBytes(StandardCharsets.UTF_8));
+    program.toFile().setExecutable(true);
+    aldaHome.setProgram(program.toString());
+    return recorded;
+  }
+
+  private String recordedOptions(Path recorded, Process p) throws Exception {
+    return new String(
+      Files.readAllBytes(recorded.resolve(Integer.toString(Util.pidOf(p)))),
+      StandardCharsets.UTF_8
+    );
+  }
+
+  @Test
+  public void profilesAreChosenByRole() {
+    assertEquals("short-lived", JvmProfile.forRole("client").name);
+    assertEquals("long-lived", JvmProfile.forRole("server").name);
+    assertEquals("long-lived", JvmProfile.forRole("worker").name);
+    assertEquals("long-lived", JvmProfile.forName("auto", "server").name);
+    assertTrue(JvmProfile.forName("auto", "server").appCds);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void serversCantBeShortLived() {
+    JvmProfile.forName("short-lived", "server");
+  }
+
+  @Test
+  public void archiveCreationIsntPassedOn() {
+    assertEquals(
+      "-Xmx1g -XX:+UseSerialGC",
+      JvmProfile.withoutArchiveCreation(
+        "-Xmx1g -XX:ArchiveClassesAtExit=/tmp/alda.jsa -XX:+UseSerialGC"
+      )
+    );
+  }
+
+  @Test
+  public void aForkedExecutableCreatesTheArchive() throws Exception {
+    Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+    Path recorded = useRecordingProgram(0);
+
+    Process p = Util.forkProgram(JvmProfile.forRole("server"), "server");
+    p.waitFor();
+
+    String options = recordedOptions(recorded, p);
+    assertTrue(options.contains("-XX:+TieredCompilation"));
+    assertTrue(options.contains(
+      "-XX:ArchiveClassesAtExit=" +
+      JvmProfile.archiveFor(aldaHome.getDir().resolve("alda").toString())
+    ));
+  }
+
+  @Test
+  public void onlyOneProcessAtATimeCreatesTheArchive() throws Exception {
+    Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+    Path recorded = useRecordingProgram(1);
+
+    List<Process> processes = new ArrayList<Process>();
+    for (int i = 0; i < 3; i++) {
+      processes.add(
+        Util.forkProgram(JvmProfile.forRole("server"), "server")
+      );
+    }
+
+    int creating = 0;
+    for (Process p : processes) {
+      p.waitFor();
+      if (recordedOptions(recorded, p).contains("ArchiveClassesAtExit")) {
+        creating++;
+      }
+    }
+    assertEquals(1, creating);
+
+    // That one has exited without creating it, so the next one can.
+    Process p = Util.forkProgram(JvmProfile.forRole("server"), "server");
+    p.waitFor();
+    assertTrue(recordedOptions(recorded, p).contains("ArchiveClassesAtExit"));
+  }
+}
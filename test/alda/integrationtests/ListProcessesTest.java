@@ -0,0 +1,74 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaClient;
+import alda.AldaServerOptions;
+import alda.RetryPolicies;
+import alda.RunRegistry;
+import alda.Util;
+import alda.testutils.AldaHome;
+import alda.testutils.StubAldaServer;
+
+public class ListProcessesTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  private void register(int port) throws Exception {
+    RunRegistry.register(
+      new RunRegistry.Entry("server", port, Util.getPid(), RunRegistry.UP),
+      false
+    );
+  }
+
+  @Test
+  public void serversAreProbedConcurrentlyAndListedInOrder() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      List<Integer> ports = new ArrayList<Integer>();
+      ports.add(stub.getPort());
+      // Registered, but not answering.
+      for (int i = 0; i < 4; i++) ports.add(Util.findOpenPort());
+
+      for (int port : ports) register(port);
+      Collections.sort(ports);
+
+      AldaServerOptions serverOpts = new AldaServerOptions();
+      serverOpts.noColor = true;
+
+      PrintStream stdout = System.out;
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      long start = System.currentTimeMillis();
+      try {
+        System.setOut(new PrintStream(out, true));
+        AldaClient.listProcesses(serverOpts);
+      } finally {
+        System.setOut(stdout);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+
+      // One status deadline for all of them, rather than one each.
+      long deadline = RetryPolicies.get("status").deadline();
+      assertTrue("Took " + elapsed + " ms", elapsed < 2 * deadline);
+
+      String[] lines = out.toString().trim().split("\n");
+      assertEquals(ports.size(), lines.length);
+      for (int i = 0; i < lines.length; i++) {
+        assertTrue(lines[i], lines[i].startsWith("[" + ports.get(i) + "] "));
+        if (ports.get(i) == stub.getPort()) {
+          assertTrue(lines[i], lines[i].contains("Server up"));
+        } else {
+          assertTrue(lines[i], lines[i].contains("Server down"));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+
+import java.util.function.Supplier;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaServerOptions;
+import alda.ListWatcher;
+import alda.ProcessWatcher;
+import alda.RunRegistry;
+import alda.Util;
+import alda.testutils.AldaHome;
+import alda.testutils.StubAldaServer;
+
+public class ListWatcherTest {
+  private static final long INTERVAL = 50;
+
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  private ListWatcher watcher() {
+    AldaServerOptions serverOpts = new AldaServerOptions();
+    serverOpts.noColor = true;
+    return new ListWatcher(serverOpts, INTERVAL, false);
+  }
+
+  // Refreshes every INTERVAL ms, until `done` or 5 s have passed.
+  private void refreshUntil(ListWatcher watcher, Supplier<Boolean> done)
+    throws Exception {
+    long giveUpAt = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < giveUpAt) {
+      watcher.refresh();
+      if (done.get()) return;
+      Thread.sleep(INTERVAL);
+    }
+    fail("Gave up waiting. Table:\n" + watcher.table());
+  }
+
+  @Test
+  public void serversAreShownWithTheirStatus() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status")) {
+      RunRegistry.register(
+        new RunRegistry.Entry("server", stub.getPort(), Util.getPid(),
+                              RunRegistry.UP),
+        false
+      );
+
+      ListWatcher watcher = watcher();
+      try {
+        refreshUntil(watcher, () -> watcher.table().contains(" up "));
+
+        String row = watcher.table().split("\n")[1];
+        assertTrue(row, row.startsWith(Integer.toString(stub.getPort())));
+        assertTrue(row, row.contains(" 2/2 "));
+        assertTrue(row, row.contains(" ms "));
+
+        // Entries that change are picked up without reloading the registry.
+        RunRegistry.register(
+          new RunRegistry.Entry("worker", stub.getPort(), Util.getPid(),
+                                RunRegistry.UP),
+          false
+        );
+        refreshUntil(watcher, () -> watcher.table().contains(" worker "));
+
+        RunRegistry.unregisterServer(stub.getPort());
+        refreshUntil(watcher, () -> !watcher.table().contains(" server "));
+      } finally {
+        watcher.close();
+      }
+    }
+  }
+
+  @Test
+  public void unchangedServersAreProbedLessOften() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status")) {
+      RunRegistry.register(
+        new RunRegistry.Entry("server", stub.getPort(), Util.getPid(),
+                              RunRegistry.UP),
+        false
+      );
+
+      ListWatcher watcher = watcher();
+      try {
+        int refreshes = 40;
+        for (int i = 0; i < refreshes; i++) {
+          watcher.refresh();
+          Thread.sleep(INTERVAL);
+        }
+
+        // Backing off to once every 8 intervals, this is about 9 probes.
+        int probes = stub.statusRequests.get();
+        assertTrue("Probed " + probes + " times", probes < refreshes / 2);
+      } finally {
+        watcher.close();
+      }
+    }
+  }
+
+  @Test
+  public void workersThatExitAreRemoved() throws Exception {
+    Process p = new ProcessBuilder("sleep", "30").start();
+    int pid = Util.pidOf(p);
+    Assume.assumeTrue(pid > 0 && ProcessWatcher.isAlive(pid) != null);
+
+    RunRegistry.register(
+      new RunRegistry.Entry("worker", 47311, pid, RunRegistry.UP), false
+    );
+
+    ListWatcher watcher = watcher();
+    try {
+      refreshUntil(watcher, () -> watcher.table().contains(" worker "));
+
+      // It exits without removing its entry.
+      p.destroy();
+      p.waitFor();
+      refreshUntil(watcher, () -> !watcher.table().contains(" worker "));
+    } finally {
+      watcher.close();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaClient;
+import alda.AldaProcess;
+import alda.AldaProcessReaderLinux;
+import alda.AldaProcessReaderUnix;
+import alda.IAldaProcessReader;
+import alda.Util;
+import alda.testutils.AldaHome;
+
+public class ProcessReaderTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  private final List<Process> fakes = new ArrayList<Process>();
+
+  // A process with the arguments of an Alda server or worker. (The `:` keeps
+  // the shell from replacing itself with `sleep`, which would lose them.)
+  private Process fake(String... args) throws Exception {
+    List<String> command = new ArrayList<String>();
+    command.add("sh");
+    command.add("-c");
+    command.add("sleep 30; :");
+    command.add("alda");
+    for (String arg : args) command.add(arg);
+
+    Process p = new ProcessBuilder(command).start();
+    fakes.add(p);
+    return p;
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue(AldaProcessReaderLinux.isSupported());
+  }
+
+  @After
+  public void tearDown() {
+    for (Process p : fakes) p.destroy();
+  }
+
+  private AldaProcess find(IAldaProcessReader reader, int port)
+    throws Exception {
+    for (AldaProcess process : reader.getProcesses()) {
+      if (process.port == port) return process;
+    }
+    return null;
+  }
+
+  @Test
+  public void bothReadersFindTheSameProcesses() throws Exception {
+    fake("--host", "localhost", "--port", "47113", "--workers", "2",
+         "--alda-fingerprint", "server");
+    fake("--port", "47114", "--alda-fingerprint", "worker");
+    fake("--port", "47115", "server");
+    Thread.sleep(200);
+
+    for (IAldaProcessReader reader : new IAldaProcessReader[]{
+           new AldaProcessReaderLinux(), new AldaProcessReaderUnix()}) {
+      AldaProcess server = find(reader, 47113);
+      assertNotNull(server);
+      assertEquals("server", server.type);
+      assertTrue(server.pid > 0);
+
+      AldaProcess worker = find(reader, 47114);
+      assertNotNull(worker);
+      assertEquals("worker", worker.type);
+
+      // No fingerprint, so not an Alda process.
+      assertNull(find(reader, 47115));
+    }
+
+    assertEquals(find(new AldaProcessReaderUnix(), 47113).pid,
+                 find(new AldaProcessReaderLinux(), 47113).pid);
+  }
+
+  @Test
+  public void unregisteredServersAreFoundByScanning() throws Exception {
+    // The RunRegistry is empty, as if the server was started by an older
+    // client.
+    Process server = fake("--port", "47116", "--alda-fingerprint", "server");
+    Thread.sleep(200);
+
+    assertTrue(AldaClient.checkForExistingServer(47116));
+    assertEquals(Util.pidOf(server), AldaClient.findServerPid(47116));
+    assertFalse(AldaClient.checkForExistingServer(47117));
+  }
+}
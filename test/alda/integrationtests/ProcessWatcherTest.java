@@ -0,0 +1,51 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Test;
+
+import alda.ProcessWatcher;
+
+public class ProcessWatcherTest {
+  @Test
+  public void exitIsNoticed() throws Exception {
+    assumeTrue(SystemUtils.IS_OS_UNIX);
+
+    // The shell prints its PID, then becomes `sleep`.
+    Process process = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 0.3")
+                        .start();
+    int pid = Integer.parseInt(
+      new BufferedReader(new InputStreamReader(process.getInputStream()))
+        .readLine().trim()
+    );
+
+    CompletableFuture<Void> exited = ProcessWatcher.onExit(pid);
+    assertNotNull(exited);
+    assertFalse(exited.isDone());
+
+    // Reap it, so that it doesn't linger as a zombie.
+    process.waitFor();
+    exited.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void processesThatAreAlreadyGoneHaveExited() throws Exception {
+    assumeTrue(SystemUtils.IS_OS_UNIX);
+
+    Process process = new ProcessBuilder("sh", "-c", "echo $$").start();
+    int pid = Integer.parseInt(
+      new BufferedReader(new InputStreamReader(process.getInputStream()))
+        .readLine().trim()
+    );
+    process.waitFor();
+
+    ProcessWatcher.onExit(pid).get(5, TimeUnit.SECONDS);
+  }
+}
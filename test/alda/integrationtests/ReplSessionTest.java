@@ -0,0 +1,72 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.server;
+
+import org.junit.Test;
+
+import alda.AldaServer;
+import alda.ReplSession;
+import alda.testutils.StubAldaServer;
+
+public class ReplSessionTest {
+  // Plays `input` as the REPL would, adding it to the history if it worked.
+  private void play(AldaServer server, StringBuffer history,
+                    ReplSession session, String input) throws Exception {
+    assertTrue(server.playFromRepl(input, history, session).success);
+    history.append(input).append("\n");
+  }
+
+  @Test
+  public void onlyNewInputIsSentOnceTheWorkerHasTheSession()
+    throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "repl-sessions")) {
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      StringBuffer history = new StringBuffer();
+      ReplSession session = new ReplSession();
+
+      play(server, history, session, "piano: c");
+      play(server, history, session, "d");
+      assertNull(stub.lastHistory);
+      assertTrue(stub.lastPinned);
+      play(server, history, session, "e");
+      assertNull(stub.lastHistory);
+      assertEquals(history.toString(), stub.sessions.get(session.getId()));
+
+      // The worker restarted; the whole score is sent again.
+      stub.sessions.clear();
+      play(server, history, session, "f");
+      assertEquals("piano: c\nd\ne\n", stub.lastHistory);
+      assertFalse(stub.lastPinned);
+      assertEquals(history.toString(), stub.sessions.get(session.getId()));
+
+      // The score was replaced (e.g. :load).
+      history.setLength(0);
+      history.append("bassoon: c\n");
+      session.reset();
+      play(server, history, session, "d");
+      assertEquals("bassoon: c\n", stub.lastHistory);
+    }
+  }
+
+  @Test
+  public void historyIsAlwaysSentWithoutTheCapability() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      AldaServer server = server(stub);
+      primeCapabilities(server);
+
+      StringBuffer history = new StringBuffer();
+      ReplSession session = new ReplSession();
+
+      play(server, history, session, "piano: c");
+      play(server, history, session, "d");
+      play(server, history, session, "e");
+      assertEquals("piano: c\nd\n", stub.lastHistory);
+      assertFalse(stub.lastPinned);
+      assertTrue(stub.sessions.isEmpty());
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import alda.AldaClientMetrics;
+import alda.AldaRequest;
+import alda.ExponentialBackoff;
+import alda.RetryPolicies;
+import alda.RetryPolicy;
+import alda.error.NoResponseException;
+
+public class RetryPolicyTest {
+  @Test
+  public void backoffGrowsUpToTheMaximum() {
+    ExponentialBackoff policy =
+      new ExponentialBackoff(100, 10, 10000, 50, 400, 2, 0);
+
+    assertEquals(50, policy.backoff(0));
+    assertEquals(100, policy.backoff(1));
+    assertEquals(200, policy.backoff(2));
+    assertEquals(400, policy.backoff(3));
+    assertEquals(400, policy.backoff(9));
+  }
+
+  @Test
+  public void jitterOnlyShortensTheBackoff() {
+    ExponentialBackoff policy =
+      new ExponentialBackoff(100, 10, 10000, 100, 100, 2, 0.5);
+
+    for (int i = 0; i < 1000; i++) {
+      long backoff = policy.backoff(0);
+      assertTrue(backoff >= 50 && backoff <= 100);
+    }
+  }
+
+  @Test
+  public void requestsGiveUpAtTheDeadline() throws Exception {
+    // A port that nothing is listening on.
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    RetryPolicy policy = new ExponentialBackoff(100, 100, 600, 50, 200, 2, 0);
+    AldaRequest req = new AldaRequest("tcp://localhost", port);
+    req.command = "ping";
+
+    long timeoutsBefore = AldaClientMetrics.timeouts();
+    long start = System.currentTimeMillis();
+    try {
+      req.send(policy);
+      fail("Expected no response.");
+    } catch (NoResponseException e) {
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("Gave up too soon: " + elapsed, elapsed >= 400);
+      assertTrue("Gave up too late: " + elapsed, elapsed < 1000);
+    }
+    assertEquals(timeoutsBefore + 1, AldaClientMetrics.timeouts());
+  }
+
+  @Test
+  public void aLongerTimeoutExtendsTheDeadline() {
+    ExponentialBackoff policy = (ExponentialBackoff) RetryPolicies.configure(
+      new ExponentialBackoff(500, 3, 6000, 100, 400, 2, 0.5),
+      5000, null, null, null
+    );
+
+    // Four attempts of 5 s, and 100 + 200 + 400 ms between them.
+    assertEquals(20700, policy.deadline);
+
+    // A deadline that's given is kept.
+    policy = (ExponentialBackoff) RetryPolicies.configure(
+      new ExponentialBackoff(500, 3, 6000, 100, 400, 2, 0.5),
+      5000, null, 8000L, null
+    );
+    assertEquals(8000, policy.deadline);
+
+    // As is one that's long enough already.
+    policy = (ExponentialBackoff) RetryPolicies.configure(
+      new ExponentialBackoff(500, 3, 6000, 100, 400, 2, 0.5),
+      null, 1, null, null
+    );
+    assertEquals(6000, policy.deadline);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void aDeadlineShorterThanOneAttemptIsRejected() {
+    RetryPolicies.configure(5000, null, 1000L, null);
+  }
+}
@@ -0,0 +1,81 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaClient;
+import alda.ProcessWatcher;
+import alda.RunRegistry;
+import alda.Util;
+import alda.testutils.AldaHome;
+
+public class RunRegistryTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  @Test
+  public void serversAreFoundByPort() throws Exception {
+    int pid = Util.getPid();
+    RunRegistry.register(
+      new RunRegistry.Entry("server", 47213, pid, RunRegistry.STARTING), false
+    );
+    RunRegistry.register(
+      new RunRegistry.Entry("worker", 47214, pid, RunRegistry.UP), false
+    );
+
+    assertTrue(AldaClient.checkForExistingServer(47213));
+    assertEquals(pid, AldaClient.findServerPid(47213));
+    assertFalse(AldaClient.checkForExistingServer(47214));
+
+    RunRegistry.setServerState(47213, RunRegistry.UP);
+    assertEquals(RunRegistry.UP, RunRegistry.getServer(47213).state);
+
+    List<RunRegistry.Entry> entries = RunRegistry.getEntries();
+    assertEquals(2, entries.size());
+    assertEquals("server", entries.get(0).role);
+    assertEquals("worker", entries.get(1).role);
+  }
+
+  @Test
+  public void entriesForProcessesThatHaveExitedAreReaped() throws Exception {
+    Process p = new ProcessBuilder("true").start();
+    int pid = Util.pidOf(p);
+    p.waitFor();
+    assumeTrue(pid > 0 && ProcessWatcher.isAlive(pid) != null);
+
+    RunRegistry.register(
+      new RunRegistry.Entry("server", 47215, pid, RunRegistry.UP), false
+    );
+
+    assertNull(RunRegistry.getServer(47215));
+    Path runDir = aldaHome.getDir().resolve("run");
+    assertFalse(Files.exists(runDir.resolve("47215.json")));
+  }
+
+  @Test
+  public void entriesAreOnlyUnregisteredByTheirOwnProcess() throws Exception {
+    RunRegistry.Entry first =
+      new RunRegistry.Entry("server", 47216, Util.getPid(), RunRegistry.UP);
+    RunRegistry.register(first, false);
+
+    // A placeholder, e.g. for a server that another client is starting.
+    RunRegistry.Entry second =
+      new RunRegistry.Entry("server", 47216, -1, RunRegistry.STARTING);
+    RunRegistry.register(second, true);
+    assertEquals(Util.getPid(), RunRegistry.getServer(47216).pid);
+
+    RunRegistry.register(second, false);
+    RunRegistry.unregister(first);
+    assertNotNull(RunRegistry.getServer(47216));
+
+    RunRegistry.unregister(second);
+    assertNull(RunRegistry.getServer(47216));
+  }
+}
@@ -0,0 +1,77 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.serverOptions;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.ServerGroup;
+import alda.Util;
+import alda.error.AlreadyUpException;
+import alda.error.InvalidOptionsException;
+import alda.error.NoResponseException;
+import alda.testutils.AldaHome;
+import alda.testutils.StubAldaServer;
+
+public class ServerGroupTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  @Before
+  public void setUp() {
+    // A "server" that exits right away, so that nothing comes up.
+    aldaHome.setProgram("true");
+  }
+
+  private AldaServer server(int port, int timeout) {
+    AldaServerOptions serverOpts = serverOptions(port);
+    serverOpts.timeout = timeout;
+    return new AldaServer(serverOpts);
+  }
+
+  @Test
+  public void nothingIsStartedIfAnyServerIsAlreadyUp() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      ServerGroup group = new ServerGroup()
+        .add(server(Util.findOpenPort(), 5), 1)
+        .add(server(stub.getPort(), 5), 1);
+
+      long start = System.currentTimeMillis();
+      try {
+        group.upBg();
+        fail("Expected AlreadyUpException");
+      } catch (AlreadyUpException e) {
+        // Didn't wait for the other server to start.
+        assertTrue(System.currentTimeMillis() - start < 5000);
+      }
+    }
+  }
+
+  @Test
+  public void serversAreAwaitedInParallel() throws Exception {
+    ServerGroup group = new ServerGroup();
+    for (int i = 0; i < 3; i++) {
+      group.add(server(Util.findOpenPort(), 2), 1);
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      group.upBg();
+      fail("Expected NoResponseException");
+    } catch (NoResponseException e) {
+      // One timeout, rather than one per server.
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("Took " + elapsed + " ms", elapsed < 2 * 2000);
+    }
+  }
+
+  @Test(expected = InvalidOptionsException.class)
+  public void eachPortCanOnlyBeGivenOnce() throws Exception {
+    int port = Util.findOpenPort();
+    new ServerGroup().add(server(port, 5), 1).add(server(port, 5), 2);
+  }
+}
@@ -0,0 +1,132 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.serverOptions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.RunRegistry;
+import alda.ServerRoutes;
+import alda.testutils.AldaHome;
+import alda.testutils.StubAldaServer;
+
+public class ServerRoutesTest {
+  @Rule
+  public final AldaHome aldaHome = new AldaHome();
+
+  @After
+  public void tearDown() throws Exception {
+    // Don't leave behind any stub servers that a failed test started.
+    for (RunRegistry.Entry entry : RunRegistry.getEntries()) {
+      if (entry.pid > 0) {
+        new ProcessBuilder("kill", Integer.toString(entry.pid)).start()
+                                                               .waitFor();
+      }
+    }
+  }
+
+  @Test
+  public void routesCanBeReplacedAndCleared() throws Exception {
+    assertEquals(27713, ServerRoutes.resolve(27713));
+
+    ServerRoutes.route(27713, 40000);
+    assertEquals(40000, ServerRoutes.resolve(27713));
+
+    ServerRoutes.route(27713, 40001);
+    assertEquals(40001, ServerRoutes.resolve(27713));
+
+    ServerRoutes.route(27713, 27713);
+    assertEquals(27713, ServerRoutes.resolve(27713));
+
+    ServerRoutes.route(27713, 40002);
+    ServerRoutes.clear(27713);
+    assertEquals(27713, ServerRoutes.resolve(27713));
+  }
+
+  @Test
+  public void clientsFollowTheRoute() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      ServerRoutes.route(27713, stub.getPort());
+
+      AldaServer server = new AldaServer(serverOptions(27713));
+
+      assertEquals(stub.getPort(), server.port);
+      assertTrue(server.getServerStatus().isReady());
+    }
+  }
+
+  @Test
+  public void routesAreOnlyForThisHost() throws Exception {
+    ServerRoutes.route(27713, 40000);
+
+    AldaServerOptions serverOpts = serverOptions(27713);
+    serverOpts.host = "alda.example.com";
+
+    assertEquals(27713, new AldaServer(serverOpts).port);
+  }
+
+  // A program that runs `alda server` (see StubAldaServer.main), with a stub
+  // in place of the server itself.
+  private void useStubServerProgram() throws Exception {
+    Path program = aldaHome.getDir().resolve("stub-server");
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java")
+                       .toString();
+    String script = String.format(
+      "#!/bin/sh%nexec '%s' -cp '%s' -Dalda.home='%s' %s \"$@\"%n",
+      java, System.getProperty("java.class.path"), aldaHome.getDir(),
+      StubAldaServer.class.getName()
+    );
+    Files.write(program, script.getBytes("UTF-8"));
+    program.toFile().setExecutable(true);
+    aldaHome.setProgram(program.toString());
+  }
+
+  @Test
+  public void aServerCanBeReplacedWithoutDowntime() throws Exception {
+    Assume.assumeTrue(SystemUtils.IS_OS_UNIX);
+    useStubServerProgram();
+
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      stub.stopOnStopServer = true;
+      int publicPort = stub.getPort();
+      AldaServerOptions serverOpts = serverOptions(publicPort);
+      serverOpts.timeout = 30;
+      AldaServer server = new AldaServer(serverOpts);
+
+      server.downUpBlueGreen(1);
+
+      // Clients of the public port are routed to the replacement, which is
+      // up, and the old server has been stopped.
+      int replacementPort = server.port;
+      assertNotEquals(publicPort, replacementPort);
+      assertEquals(replacementPort, ServerRoutes.resolve(publicPort));
+      assertTrue(
+        new AldaServer(serverOptions(publicPort)).getServerStatus().isReady()
+      );
+      assertFalse(stub.isRunning());
+
+      // The next replacement goes back to the public port, even though its
+      // clients are routed to the first replacement while it starts.
+      server.downUpBlueGreen(1);
+
+      assertEquals(publicPort, server.port);
+      assertEquals(publicPort, ServerRoutes.resolve(publicPort));
+      assertTrue(
+        new AldaServer(serverOptions(publicPort)).getServerStatus().isReady()
+      );
+      assertNull(RunRegistry.getServer(replacementPort));
+
+      server.down();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package alda.integrationtests;
+
+import static org.junit.Assert.*;
+import static alda.testutils.TestUtil.primeCapabilities;
+import static alda.testutils.TestUtil.serverOptions;
+
+import org.junit.Test;
+
+import alda.AldaClientMetrics;
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.AldaServerStatus;
+import alda.ExponentialBackoff;
+import alda.RetryPolicies;
+import alda.RetryPolicy;
+import alda.StatusReport;
+import alda.error.NoResponseException;
+import alda.testutils.StubAldaServer;
+
+public class ServerStatusTest {
+  private AldaServer server(StubAldaServer stub, int timeout) {
+    AldaServerOptions serverOpts = serverOptions(stub.getPort());
+    serverOpts.timeout = timeout;
+    return new AldaServer(serverOpts);
+  }
+
+  @Test
+  public void structuredStatusIsUsedWhenTheServerSupportsIt()
+    throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status")) {
+      AldaServerStatus status = server(stub, 5).getServerStatus();
+
+      assertTrue(status.up);
+      assertEquals(2, status.workersTotal);
+      assertEquals(2, status.workersAvailable);
+      assertEquals(Integer.valueOf(0), status.workersBusy);
+      assertEquals(Integer.valueOf(0), status.queueDepth);
+      assertNotNull(status.uptime);
+    }
+  }
+
+  @Test
+  public void statusIsParsedFromTheBodyOtherwise() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      AldaServerStatus status = server(stub, 5).getServerStatus();
+
+      assertTrue(status.up);
+      assertEquals(2, status.workersTotal);
+      assertEquals(2, status.workersAvailable);
+      assertEquals(Integer.valueOf(0), status.backendPort);
+      assertNull(status.workersBusy);
+    }
+  }
+
+  @Test
+  public void readinessIsPushedWhenTheServerSupportsIt() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status",
+                                                  "worker-ready-push")) {
+      stub.workerStartupTime = 300;
+      AldaServer server = server(stub, 5);
+      primeCapabilities(server);
+
+      server.waitForWorker();
+      assertTrue(server.getServerStatus().isReady());
+    }
+  }
+
+  @Test
+  public void readinessIsAwaitedWithASingleSubscription() throws Exception {
+    RetryPolicy statusPolicy = RetryPolicies.get("status");
+    // Shorter than the wait for a worker, so a retried subscription would be
+    // sent again.
+    RetryPolicies.set("status", ExponentialBackoff.fixed(200, 3));
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status",
+                                                  "worker-ready-push")) {
+      stub.holdReadinessReplies = true;
+      stub.workerStartupTime = 1000;
+      AldaServer server = server(stub, 5);
+      primeCapabilities(server);
+
+      server.waitForWorker();
+      assertEquals(1, stub.readinessSubscriptions.get());
+    } finally {
+      RetryPolicies.set("status", statusPolicy);
+    }
+  }
+
+  @Test
+  public void readinessIsPolledOtherwise() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true)) {
+      stub.workerStartupTime = 300;
+      AldaServer server = server(stub, 5);
+
+      server.waitForWorker();
+      assertTrue(server.getServerStatus().isReady());
+    }
+  }
+
+  @Test
+  public void statusReportsReuseTheConnection() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "structured-status")) {
+      AldaServer server = server(stub, 5);
+      assertTrue(server.getStatusReport().up);
+
+      long opened = AldaClientMetrics.connectionsOpened();
+      long rebuilt = AldaClientMetrics.socketRebuilds();
+
+      StatusReport report = null;
+      for (int i = 0; i < 5; i++) report = server.getStatusReport();
+
+      assertEquals(opened, AldaClientMetrics.connectionsOpened());
+      assertEquals(rebuilt, AldaClientMetrics.socketRebuilds());
+
+      assertTrue(report.up);
+      assertNotNull(report.rtt);
+      assertTrue(report.roundTrips >= 6);
+      assertTrue(report.toJson().contains("\"workersAvailable\":2"));
+      assertTrue(report.toPrometheus().contains(
+        "alda_workers_available{host=\"localhost\",port=\"" +
+        stub.getPort() + "\"} 2\n"
+      ));
+    }
+  }
+
+  @Test
+  public void clientCountersAreOnlyReportedWhenAsked() throws Exception {
+    StatusReport report = StatusReport.forServer("localhost", 27713);
+    assertFalse(report.toJson().contains("\"client\""));
+    assertFalse(report.toPrometheus().contains("alda_client_"));
+
+    report = StatusReport.withClientMetrics("localhost", 27713);
+    assertTrue(report.toJson().contains("\"client\""));
+    assertTrue(report.toPrometheus().contains("alda_client_retries_total"));
+  }
+
+  @Test(expected = NoResponseException.class)
+  public void waitingForAWorkerTimesOut() throws Exception {
+    try (StubAldaServer stub = new StubAldaServer(true, "worker-ready-push")) {
+      stub.workerStartupTime = 5000;
+      AldaServer server = server(stub, 1);
+      primeCapabilities(server);
+
+      server.waitForWorker();
+    }
+  }
+}
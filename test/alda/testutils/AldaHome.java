@@ -0,0 +1,45 @@
+package alda.testutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.rules.ExternalResource;
+
+/*
+ * A temporary ~/.alda (see Util.getAldaDir) for each test, so that tests
+ * don't see or leave behind each other's routes, run registry entries or
+ * class-data sharing archives:
+ *
+ *   @Rule
+ *   public final AldaHome aldaHome = new AldaHome();
+ *
+ * After the test, the directory is deleted, and so is any program set with
+ * setProgram.
+ */
+public class AldaHome extends ExternalResource {
+  private Path dir;
+
+  @Override
+  protected void before() throws IOException {
+    dir = Files.createTempDirectory("alda-home");
+    System.setProperty("alda.home", dir.toString());
+  }
+
+  @Override
+  protected void after() {
+    System.clearProperty("alda.program");
+    System.clearProperty("alda.home");
+    FileUtils.deleteQuietly(dir.toFile());
+  }
+
+  public Path getDir() {
+    return dir;
+  }
+
+  // Makes Util.forkProgram start `program` instead of Alda.
+  public void setProgram(String program) {
+    System.setProperty("alda.program", program);
+  }
+}
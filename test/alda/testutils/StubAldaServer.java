@@ -0,0 +1,437 @@
+package alda.testutils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import alda.AldaServer;
+import alda.AldaServerOptions;
+
+/*
+ * A minimal stand-in for an Alda server, for tests that exercise the client's
+ * networking without needing a real server and workers.
+ *
+ * Replies to every request immediately, from its own thread:
+ *   - play/export: accepted and pending, with the request's jobId
+ *   - job-status: finished ("success"), with the request's jobId
+ *   - status: "Server up", with the number of workers available
+ *   - anything else: success, with the request's requestId as the body
+ *
+ * When echoRequestIds is false, it behaves like an older server that doesn't
+ * echo the requestId field back in its responses. Any capabilities given
+ * (e.g. "deflate") are advertised in every response.
+ *
+ * Jobs: a play/export request for a jobId that the stub has already seen gets
+ * a "duplicate-job" reply, as from a server with "idempotent-jobs". Setting
+ * jobRepliesToDrop makes it drop that many replies to play/export requests,
+ * as if they were lost in transit. The jobIds of cancel-job requests are kept
+ * in jobsCancelled.
+ *
+ * Job status: with "job-status-push", a job-status request with `subscribe`
+ * set (counted in jobStatusSubscriptions) gets "parsing" and "playing"
+ * updates before the final status. With "job-status-batch", it answers
+ * job-status-batch requests with the status of each job listed, or fails them
+ * if failJobStatusBatches is set. jobStatusPolls counts how many times each
+ * job has been asked about.
+ *
+ * Server status: with "structured-status", a status reply also has a
+ * structured serverStatus. With `subscribe` set, a status request gets a
+ * final reply once a worker is available (see workerStartupTime), and with
+ * holdReadinessReplies, no reply before then.
+ *
+ * REPL sessions: with "repl-sessions", a play request with a `session` keeps
+ * the score so far in `sessions`. A request with a history starts the
+ * session over; one without is added to the session's score, as long as it's
+ * pinned to the stub's worker and the session exists. Otherwise it gets an
+ * "unknown-session" reply.
+ *
+ * Stopping: with stopOnStopServer, a stop-server request makes the stub stop
+ * answering, as a server that's shutting down would. Run on its own (see
+ * main), the stub stands in for a server process that Alda forks.
+ *
+ * The (decompressed) body and history of the last request other than a job
+ * status request, and whether it was pinned to a worker, are kept for tests
+ * to inspect.
+ */
+public class StubAldaServer implements AutoCloseable {
+  private static final byte[] WORKER_ADDRESS = "stub-worker".getBytes();
+
+  private final ZContext context = new ZContext();
+  private final Socket router;
+  private final int port;
+  private final boolean echoRequestIds;
+  private final String[] capabilities;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  public volatile String lastBody;
+  public volatile String lastHistory;
+  public volatile boolean lastPinned;
+  public volatile boolean stopOnStopServer = false;
+
+  public final AtomicInteger jobRequests = new AtomicInteger();
+  public final AtomicInteger jobStatusRequests = new AtomicInteger();
+  public final AtomicInteger jobStatusSubscriptions = new AtomicInteger();
+  // How many times each job has been asked about, singly or in a batch.
+  public final Map<String, AtomicInteger> jobStatusPolls =
+    new ConcurrentHashMap<String, AtomicInteger>();
+  public volatile boolean failJobStatusBatches = false;
+  public final AtomicInteger jobStatusBatchRequests = new AtomicInteger();
+  public final AtomicInteger statusRequests = new AtomicInteger();
+  public final Set<String> jobsStarted = ConcurrentHashMap.newKeySet();
+  public final Set<String> jobsCancelled = ConcurrentHashMap.newKeySet();
+  public final AtomicInteger jobRepliesToDrop = new AtomicInteger();
+  public final Map<String, String> sessions =
+    new ConcurrentHashMap<String, String>();
+
+  // Workers become available this many ms after the stub starts.
+  public volatile int workersTotal = 2;
+  public volatile long workerStartupTime = 0;
+  // When set, a status request with `subscribe` gets no reply at all until a
+  // worker is available.
+  public volatile boolean holdReadinessReplies = false;
+  public final AtomicInteger readinessSubscriptions = new AtomicInteger();
+  private final long startedAt = System.currentTimeMillis();
+  private final List<Subscriber> readinessSubscribers =
+    new ArrayList<Subscriber>();
+
+  private static class Subscriber {
+    final ZFrame identity;
+    final JsonObject response;
+
+    Subscriber(ZFrame identity, JsonObject response) {
+      this.identity = identity;
+      this.response = response;
+    }
+  }
+
+  // When positive, jobs are "parsing" for this many ms after they're
+  // requested, and then "playing" (and no longer pending).
+  public volatile long parsingTime = 0;
+  private final Map<String, Long> jobStartTimes =
+    new ConcurrentHashMap<String, Long>();
+
+  public StubAldaServer(boolean echoRequestIds, String... capabilities) {
+    this(0, echoRequestIds, capabilities);
+  }
+
+  // Listens on `port`, or on a random port if it's 0.
+  public StubAldaServer(int port, boolean echoRequestIds,
+                        String... capabilities) {
+    this.echoRequestIds = echoRequestIds;
+    this.capabilities = capabilities;
+    router = context.createSocket(ZMQ.ROUTER);
+    if (port == 0) {
+      this.port = router.bindToRandomPort("tcp://*");
+    } else {
+      router.bind("tcp://*:" + port);
+      this.port = port;
+    }
+    thread = new Thread(this::run, "stub-alda-server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Runs like `alda server` with the arguments that Alda forks a server with
+   * (AldaServer.upFg, on the port given by `--port`), except that the server
+   * itself is a stub, which runs until it gets a stop-server request.
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> opts = Arrays.asList(args);
+    AldaServerOptions serverOpts = TestUtil.serverOptions(
+      Integer.parseInt(opts.get(opts.indexOf("--port") + 1))
+    );
+    serverOpts.timeout = 30;
+
+    new AldaServer(serverOpts) {
+      @Override
+      protected void start(int numberOfWorkers) {
+        StubAldaServer stub = new StubAldaServer(port, true);
+        stub.stopOnStopServer = true;
+        try {
+          stub.thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        stub.context.destroy();
+      }
+    }.upFg(1);
+
+    // Any threads that upFg started don't keep the "server" running.
+    System.exit(0);
+  }
+
+  private void run() {
+    Poller poller = context.createPoller(1);
+    poller.register(router, Poller.POLLIN);
+
+    while (running) {
+      if (poller.poll(readinessSubscribers.isEmpty() ? 100 : 10) > 0 &&
+          poller.pollin(0)) {
+        handle(ZMsg.recvMsg(router));
+      }
+      if (!readinessSubscribers.isEmpty() && workersAvailable() > 0) {
+        for (Subscriber subscriber : readinessSubscribers) {
+          addServerStatus(subscriber.response);
+          subscriber.response.addProperty("pending", false);
+          send(subscriber.identity, subscriber.response, true);
+        }
+        readinessSubscribers.clear();
+      }
+    }
+
+    // Frees the port, e.g. for a server that replaces this one.
+    context.destroySocket(router);
+  }
+
+  private void handle(ZMsg msg) {
+    ZFrame identity = msg.pop();
+    JsonObject request = new JsonParser().parse(msg.popString())
+                                         .getAsJsonObject();
+    // Any frame before the command names the worker to use.
+    boolean pinned = msg.size() > 1;
+    String command = msg.getLast().toString();
+
+    String requestId = request.get("requestId").getAsString();
+    JsonObject options = request.has("options")
+                           ? request.getAsJsonObject("options")
+                           : new JsonObject();
+    String jobId = options.has("jobId") ? options.get("jobId").getAsString()
+                                        : null;
+    String body = decode(request, "body", "bodyEncoding");
+    String history = decode(options, "history", "historyEncoding");
+    if (!command.startsWith("job-status")) {
+      lastBody = body;
+      lastHistory = history;
+      lastPinned = pinned;
+    }
+
+    JsonObject response = new JsonObject();
+    response.addProperty("success", true);
+    if (echoRequestIds) response.addProperty("requestId", requestId);
+    if (capabilities.length > 0) {
+      JsonArray advertised = new JsonArray();
+      for (String capability : capabilities) advertised.add(capability);
+      response.add("capabilities", advertised);
+    }
+
+    boolean noWorker = false;
+    switch (command) {
+      case "play":
+      case "export":
+        jobRequests.incrementAndGet();
+        if (options.has("session") &&
+            Arrays.asList(capabilities).contains("repl-sessions")) {
+          String session = options.get("session").getAsString();
+          String score = history != null ? history
+                       : pinned ? sessions.get(session)
+                       : null;
+          if (score == null) {
+            response.addProperty("success", false);
+            response.addProperty("signal", "unknown-session");
+            response.addProperty("body", "Unknown session.");
+            response.addProperty("jobId", jobId);
+            break;
+          }
+          sessions.put(session, score + body + "\n");
+        }
+        if (jobsStarted.add(jobId)) {
+          jobStartTimes.put(jobId, System.currentTimeMillis());
+          response.addProperty("pending", true);
+          response.addProperty("body", "Request received.");
+        } else {
+          response.addProperty("success", false);
+          response.addProperty("signal", "duplicate-job");
+          response.addProperty("body", "Job already received.");
+        }
+        response.addProperty("jobId", jobId);
+        if (jobRepliesToDrop.getAndDecrement() > 0) return;
+        break;
+      case "job-status":
+        jobStatusRequests.incrementAndGet();
+        if (options.has("subscribe") && options.get("subscribe").getAsBoolean()) {
+          jobStatusSubscriptions.incrementAndGet();
+          // Push the job's progress, then the final status below.
+          for (String status : new String[]{"parsing", "playing"}) {
+            JsonObject update = new JsonParser().parse(response.toString())
+                                               .getAsJsonObject();
+            update.addProperty("pending", true);
+            update.addProperty("body", status);
+            update.addProperty("jobId", jobId);
+            update.addProperty("noWorker", false);
+            send(identity, update, false);
+          }
+        }
+        countPoll(jobId);
+        addJobStatus(response, jobId);
+        break;
+      case "status":
+        statusRequests.incrementAndGet();
+        noWorker = true;
+        addServerStatus(response);
+        if (options.has("subscribe") &&
+            options.get("subscribe").getAsBoolean() &&
+            workersAvailable() == 0) {
+          // Reply now (unless holding replies), and again once a worker is
+          // available.
+          readinessSubscriptions.incrementAndGet();
+          JsonObject later =
+            new JsonParser().parse(response.toString()).getAsJsonObject();
+          later.addProperty("noWorker", true);
+          readinessSubscribers.add(new Subscriber(identity.duplicate(), later));
+          if (holdReadinessReplies) return;
+          response.addProperty("pending", true);
+        }
+        break;
+      case "cancel-job":
+        jobsCancelled.add(jobId);
+        response.addProperty("jobId", jobId);
+        break;
+      case "job-status-batch":
+        jobStatusBatchRequests.incrementAndGet();
+        noWorker = true;
+        if (failJobStatusBatches) {
+          response.addProperty("success", false);
+          response.addProperty("body", "Something went wrong.");
+          break;
+        }
+        JsonArray statuses = new JsonArray();
+        for (JsonElement job : options.getAsJsonArray("jobs")) {
+          JsonObject status = new JsonObject();
+          status.addProperty("success", true);
+          String id = job.getAsJsonObject().get("jobId").getAsString();
+          countPoll(id);
+          addJobStatus(status, id);
+          statuses.add(status);
+        }
+        response.add("jobs", statuses);
+        break;
+      case "stop-server":
+        noWorker = true;
+        response.addProperty("body", "Shutting down.");
+        if (stopOnStopServer) running = false;
+        break;
+      default:
+        noWorker = true;
+        response.addProperty("body", requestId);
+    }
+    response.addProperty("noWorker", noWorker);
+
+    send(identity, response, noWorker);
+  }
+
+  private void countPoll(String jobId) {
+    jobStatusPolls.computeIfAbsent(jobId, id -> new AtomicInteger())
+                  .incrementAndGet();
+  }
+
+  private int workersAvailable() {
+    return System.currentTimeMillis() - startedAt < workerStartupTime
+             ? 0
+             : workersTotal;
+  }
+
+  private void addServerStatus(JsonObject response) {
+    int available = workersAvailable();
+    response.addProperty("body", String.format(
+      "Server up (%d/%d workers available, backend port: 0)",
+      available, workersTotal
+    ));
+    if (Arrays.asList(capabilities).contains("structured-status")) {
+      JsonObject status = new JsonObject();
+      status.addProperty("up", true);
+      status.addProperty("workersTotal", workersTotal);
+      status.addProperty("workersAvailable", available);
+      status.addProperty("workersBusy", 0);
+      status.addProperty("queueDepth", 0);
+      status.addProperty("uptime", System.currentTimeMillis() - startedAt);
+      response.add("serverStatus", status);
+    }
+  }
+
+  private void addJobStatus(JsonObject response, String jobId) {
+    Long startTime = jobStartTimes.get(jobId);
+    if (parsingTime > 0 && startTime != null) {
+      boolean parsing = System.currentTimeMillis() - startTime < parsingTime;
+      response.addProperty("pending", parsing);
+      response.addProperty("body", parsing ? "parsing" : "playing");
+    } else {
+      response.addProperty("pending", false);
+      response.addProperty("body", "success");
+    }
+    response.addProperty("jobId", jobId);
+  }
+
+  private void send(ZFrame identity, JsonObject response, boolean noWorker) {
+    ZMsg reply = new ZMsg();
+    reply.add(identity.duplicate());
+    reply.add(new byte[0]);
+    reply.addString(response.toString());
+    if (!noWorker) reply.add(WORKER_ADDRESS);
+    reply.send(router);
+  }
+
+  private static String decode(JsonObject json, String field,
+                               String encodingField) {
+    if (!json.has(field)) return null;
+
+    String value = json.get(field).getAsString();
+    if (!json.has(encodingField)) return value;
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.getDecoder().decode(value));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        out.write(buffer, 0, inflater.inflate(buffer));
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException e) {
+      throw new RuntimeException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    context.destroy();
+  }
+}
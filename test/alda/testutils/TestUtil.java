@@ -6,6 +6,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
 
+import alda.AldaServer;
+import alda.AldaServerOptions;
+import alda.error.NoResponseException;
+
 public class TestUtil {
   public static String randomTempFilename(String tmpdirname)
     throws IOException {
@@ -14,4 +18,33 @@ public class TestUtil {
     Path tmpfile = Paths.get(tmpdir.toString(), filename);
     return tmpfile.toAbsolutePath().toString();
   }
+
+  /**
+   * Options for talking to a server on this port, without messages or colors
+   * to clutter the test output.
+   */
+  public static AldaServerOptions serverOptions(int port) {
+    AldaServerOptions serverOpts = new AldaServerOptions();
+    serverOpts.host = "localhost";
+    serverOpts.port = port;
+    serverOpts.quiet = true;
+    serverOpts.noColor = true;
+    return serverOpts;
+  }
+
+  public static AldaServer server(StubAldaServer stub) {
+    return new AldaServer(serverOptions(stub.getPort()));
+  }
+
+  /**
+   * Makes a request to the server, so that the client knows which
+   * capabilities it has (they come with every response) before the test's
+   * requests are sent.
+   */
+  public static void primeCapabilities(AldaServer server)
+    throws NoResponseException {
+    if (!server.checkForConnection()) {
+      throw new NoResponseException("The server didn't respond.");
+    }
+  }
 }